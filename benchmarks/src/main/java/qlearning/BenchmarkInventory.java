@@ -0,0 +1,64 @@
+package qlearning;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Machine inventories shared by the benchmarks: typesCount types named M1..Mn,
+ * each one with at most maxPerType machines.
+ *
+ * @author Federico Lombardi
+ */
+final class BenchmarkInventory {
+
+	static final int PENALIZATION_FACTOR = 10;
+
+	private BenchmarkInventory() {
+	}
+
+	static String[] types(int typesCount) {
+		String[] types = new String[typesCount];
+		for (int i=0; i<typesCount; ++i) {
+			types[i] = "M" + (i+1);
+		}
+		return types;
+	}
+
+	static int[] maxMachinePerType(int typesCount, int maxPerType) {
+		int[] maxMachinePerType = new int[typesCount];
+		for (int i=0; i<typesCount; ++i) {
+			maxMachinePerType[i] = maxPerType;
+		}
+		return maxMachinePerType;
+	}
+
+	/**
+	 * @param cpuValuesStateMap
+	 * @return the middle cpu value, so that the goal is far from the borders of the state space
+	 */
+	static int goalCpu(Map<Integer, List<State>> cpuValuesStateMap) {
+		int maxCpu = 0;
+		for (Integer cpu : cpuValuesStateMap.keySet()) {
+			maxCpu = Math.max(maxCpu, cpu);
+		}
+		int goalCpu = maxCpu / 2;
+		while (!cpuValuesStateMap.containsKey(goalCpu)) {
+			++goalCpu;
+		}
+		return goalCpu;
+	}
+
+	static QLearning buildQLearning(int typesCount, int maxPerType) {
+		return buildQLearning(new StateSpace(types(typesCount), maxMachinePerType(typesCount, maxPerType)));
+	}
+
+	static QLearning buildQLearning(StateSpace stateSpace) {
+		List<State> states = stateSpace.getStates();
+		Map<Integer, List<State>> cpuValuesStateMap = Starter.buildCpuValuesStateMap(states);
+		Map<State, List<State>> actions = ActionGraphBuilder.buildActions(stateSpace);
+		return new QLearning(states, cpuValuesStateMap, actions, goalCpu(cpuValuesStateMap), PENALIZATION_FACTOR, false);
+	}
+
+}
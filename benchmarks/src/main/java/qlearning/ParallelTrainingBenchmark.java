@@ -0,0 +1,57 @@
+package qlearning;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Full training from a zero Q table with a growing number of workers,
+ * to track the speedup of runParallel over a single worker.
+ *
+ * @author Federico Lombardi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-bench.xml")
+public class ParallelTrainingBenchmark {
+
+	@Param({"4"})
+	int typesCount;
+
+	@Param({"5"})
+	int maxPerType;
+
+	@Param({"1", "2", "4", "8"})
+	int workers;
+
+	QLearning qlearning;
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		qlearning = BenchmarkInventory.buildQLearning(typesCount, maxPerType);
+	}
+
+	@Benchmark
+	public QLearning train() throws InterruptedException, ExecutionException {
+		qlearning.runParallel(workers);
+		return qlearning;
+	}
+
+}
@@ -0,0 +1,104 @@
+package qlearning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Throughput of the Q table lookups used during training and by the policy.
+ *
+ * @author Federico Lombardi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-bench.xml")
+public class PolicyBenchmark {
+
+	static final int LOOKUPS = 1024;
+
+	@Param({"3", "4"})
+	int typesCount;
+
+	@Param({"3", "5"})
+	int maxPerType;
+
+	QLearning qlearning;
+	PolicyService policyService;
+	qlearning.State[] lookups;
+	int[][] lookupCounts;
+	List<Map<Machine, Integer>> lookupMaps;
+	int next;
+
+	@Setup
+	public void setup() {
+		StateSpace stateSpace = new StateSpace(BenchmarkInventory.types(typesCount),
+				BenchmarkInventory.maxMachinePerType(typesCount, maxPerType));
+		qlearning = BenchmarkInventory.buildQLearning(stateSpace);
+		SplittableRandom rand = new SplittableRandom(42);
+		for (int i = 0; i < TrainingBenchmark.PRETRAINING_EPISODES; i++) {
+			qlearning.runEpisode(i, rand.nextInt(qlearning.statesCount), rand, true);
+		}
+		policyService = new PolicyService(stateSpace);
+		policyService.addPolicy(qlearning);
+		lookups = new qlearning.State[LOOKUPS];
+		lookupCounts = new int[LOOKUPS][typesCount];
+		lookupMaps = new ArrayList<Map<Machine, Integer>>(LOOKUPS);
+		for (int i = 0; i < LOOKUPS; i++) {
+			lookups[i] = qlearning.states.get(rand.nextInt(qlearning.statesCount));
+			stateSpace.getCounts(lookups[i].getStateId()-1, lookupCounts[i]);
+			lookupMaps.add(lookups[i].getConfiguration().getMachineMap());
+		}
+	}
+
+	private qlearning.State nextState() {
+		next = (next + 1) & (LOOKUPS - 1);
+		return lookups[next];
+	}
+
+	@Benchmark
+	public double getMaxQ() {
+		return qlearning.getMaxQ(nextState());
+	}
+
+	@Benchmark
+	public qlearning.State getPolicy() {
+		return qlearning.getPolicy(nextState());
+	}
+
+	@Benchmark
+	public qlearning.State recommend() {
+		next = (next + 1) & (LOOKUPS - 1);
+		return policyService.recommend(lookupCounts[next], qlearning.getGoalCpu());
+	}
+
+	@Benchmark
+	public qlearning.State recommendFromMap() {
+		next = (next + 1) & (LOOKUPS - 1);
+		return policyService.recommend(lookupMaps.get(next), qlearning.getGoalCpu());
+	}
+
+	@Benchmark
+	public qlearning.State recommendFromConfiguration() {
+		return policyService.recommend(nextState().getConfiguration(), qlearning.getGoalCpu());
+	}
+
+}
@@ -0,0 +1,66 @@
+package qlearning;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Cost of building the state space and the action graph before training.
+ *
+ * @author Federico Lombardi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-bench.xml")
+public class StateSpaceBenchmark {
+
+	@Param({"2", "4", "6"})
+	int typesCount;
+
+	@Param({"3", "5"})
+	int maxPerType;
+
+	String[] types;
+	int[] maxMachinePerType;
+	StateSpace stateSpace;
+
+	@Setup
+	public void setup() {
+		types = BenchmarkInventory.types(typesCount);
+		maxMachinePerType = BenchmarkInventory.maxMachinePerType(typesCount, maxPerType);
+		stateSpace = new StateSpace(types, maxMachinePerType);
+	}
+
+	@Benchmark
+	public List<qlearning.State> buildStates() {
+		return Starter.buildStates(types, maxMachinePerType);
+	}
+
+	@Benchmark
+	public Map<qlearning.State, List<qlearning.State>> buildActions() {
+		return ActionGraphBuilder.buildActions(stateSpace);
+	}
+
+	@Benchmark
+	public ActionGraph buildActionGraph() {
+		return new ActionGraph(stateSpace.getStates(), ActionGraphBuilder.buildActions(stateSpace));
+	}
+
+}
@@ -0,0 +1,76 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Cost of a single training episode and of the per-episode evaluation of the
+ * avg step to reach a goal state, on a Q table already trained for a while.
+ *
+ * @author Federico Lombardi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-bench.xml")
+public class TrainingBenchmark {
+
+	static final int PRETRAINING_EPISODES = 200;
+
+	@Param({"3", "4"})
+	int typesCount;
+
+	@Param({"3", "5"})
+	int maxPerType;
+
+	QLearning qlearning;
+	SplittableRandom rand;
+
+	@Setup
+	public void setup() {
+		qlearning = BenchmarkInventory.buildQLearning(typesCount, maxPerType);
+		rand = new SplittableRandom(42);
+		for (int i = 0; i < PRETRAINING_EPISODES; i++) {
+			episode();
+		}
+	}
+
+	@Benchmark
+	public void episode() {
+		qlearning.runEpisode(0, rand.nextInt(qlearning.statesCount), rand, true);
+	}
+
+	@Benchmark
+	public double episodeWithEvaluation() {
+		episode();
+		return qlearning.tracker.getAverageSteps();
+	}
+
+	@Benchmark
+	public double rolloutEvaluation() {
+		qlearning.rolloutStale = true;
+		double sumStep = 0D;
+		for (qlearning.State s : qlearning.states) {
+			int step = qlearning.stepToNearGoal(s);
+			sumStep += step == 0 ? 1 : step;
+		}
+		return sumStep / qlearning.statesCount;
+	}
+
+}
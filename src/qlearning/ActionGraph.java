@@ -0,0 +1,145 @@
+package qlearning;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Compressed sparse row (CSR) view of the actions map: the outgoing states of
+ * state i are stored in targets[offsets[i] .. offsets[i+1]), so every action is
+ * identified by a dense edge index that can be used to address packed Q and R arrays.
+ * States are indexed by stateId-1.
+ *
+ * @author Federico Lombardi
+ */
+public class ActionGraph {
+
+	private int[] offsets;
+	private int[] targets;
+	private int[] sourceEdges; // edge of the original graph for each edge of a transposed one, null otherwise
+
+	/**
+	 * Build the CSR adjacency preserving the order of each action list
+	 * @param states
+	 * @param actions
+	 */
+	public ActionGraph(List<State> states, Map<State, List<State>> actions) {
+		int statesCount = states.size();
+		this.offsets = new int[statesCount + 1];
+		for (State s : states) {
+			this.offsets[s.getStateId()] = actions.get(s).size();
+		}
+		for (int i=0; i<statesCount; ++i) {
+			this.offsets[i+1] += this.offsets[i];
+		}
+		this.targets = new int[this.offsets[statesCount]];
+		for (State s : states) {
+			int edge = this.offsets[s.getStateId()-1];
+			for (State a : actions.get(s)) {
+				this.targets[edge++] = a.getStateId()-1;
+			}
+		}
+	}
+
+	private ActionGraph(int[] offsets, int[] targets, int[] sourceEdges) {
+		this.offsets = offsets;
+		this.targets = targets;
+		this.sourceEdges = sourceEdges;
+	}
+
+	/**
+	 * Build the reversed graph, where the row of a state lists its predecessors.
+	 * Edge indices of the reversed graph are not the ones of this graph, the edge
+	 * each reversed edge comes from is given by getSourceEdge of the result.
+	 * @return the transposed adjacency
+	 */
+	public ActionGraph transpose() {
+		int statesCount = getStatesCount();
+		int[] reverseOffsets = new int[statesCount + 1];
+		for (int e = 0; e < this.targets.length; ++e) {
+			reverseOffsets[this.targets[e] + 1]++;
+		}
+		for (int i=0; i<statesCount; ++i) {
+			reverseOffsets[i+1] += reverseOffsets[i];
+		}
+		int[] next = new int[statesCount];
+		System.arraycopy(reverseOffsets, 0, next, 0, statesCount);
+		int[] reverseTargets = new int[this.targets.length];
+		int[] reverseSourceEdges = new int[this.targets.length];
+		for (int src = 0; src < statesCount; ++src) {
+			for (int e = this.offsets[src]; e < this.offsets[src+1]; ++e) {
+				int reverse = next[this.targets[e]]++;
+				reverseTargets[reverse] = src;
+				reverseSourceEdges[reverse] = e;
+			}
+		}
+		return new ActionGraph(reverseOffsets, reverseTargets, reverseSourceEdges);
+	}
+
+	public int getStatesCount() {
+		return this.offsets.length - 1;
+	}
+
+	public int getEdgesCount() {
+		return this.targets.length;
+	}
+
+	/**
+	 * @param state index of the source state
+	 * @return the first edge index of the state
+	 */
+	public int getFirstEdge(int state) {
+		return this.offsets[state];
+	}
+
+	/**
+	 * @param state index of the source state
+	 * @return the edge index following the last edge of the state
+	 */
+	public int getLastEdge(int state) {
+		return this.offsets[state+1];
+	}
+
+	/**
+	 * @param state index of the source state
+	 * @return number of outgoing actions of the state
+	 */
+	public int getDegree(int state) {
+		return this.offsets[state+1] - this.offsets[state];
+	}
+
+	/**
+	 * @param edge
+	 * @return index of the destination state of the edge
+	 */
+	public int getTarget(int edge) {
+		return this.targets[edge];
+	}
+
+	/**
+	 * @param edge edge of a graph built by transpose()
+	 * @return the edge of the original graph reversed by this one, e.g. to address its Q and R arrays
+	 */
+	public int getSourceEdge(int edge) {
+		if (this.sourceEdges == null)
+			throw new IllegalStateException("The graph is not a transposed one");
+		return this.sourceEdges[edge];
+	}
+
+	/**
+	 * Find the edge linking two states. Each row only holds the near states,
+	 * so a linear scan of the row is cheaper than any hashing.
+	 * @param src index of the source state
+	 * @param dst index of the destination state
+	 * @return the edge index or -1 if the states are not linked
+	 */
+	public int getEdge(int src, int dst) {
+		for (int e = this.offsets[src]; e < this.offsets[src+1]; ++e) {
+			if (this.targets[e] == dst)
+				return e;
+		}
+		return -1;
+	}
+
+}
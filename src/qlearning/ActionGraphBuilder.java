@@ -0,0 +1,159 @@
+package qlearning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Build the actions map by enumerating the neighbors of each state instead of
+ * comparing every pair of states. Each configuration is encoded as a vector with
+ * the number of machines of each type, and the vector is turned into a mixed-radix
+ * key (radix maxMachinePerType[i]+1) that indexes a perfect lookup table. The near
+ * states are then found by adding +1/-1 to each coordinate, so the construction
+ * costs O(states * types).
+ *
+ * @author Federico Lombardi
+ */
+public class ActionGraphBuilder {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	/**
+	 * Encode the configuration of a state as a vector of machine counts ordered as types
+	 * @param configuration
+	 * @param typeIndex map machine type -> position in the vector
+	 * @param vector output vector
+	 */
+	static void encode(Configuration configuration, Map<String, Integer> typeIndex, int[] vector) {
+		Arrays.fill(vector, 0);
+		MachineRegistry registry = configuration.getRegistry();
+		for (int i=0; i<registry.size(); ++i) {
+			vector[typeIndex.get(registry.getMachine(i).getType())] = configuration.getCount(i);
+		}
+	}
+
+	/**
+	 * Build a map that given a State has a List of all possible outgoing state (the state itself
+	 * included), with the same content and order of the pairwise areStateNear scan
+	 * @param types
+	 * @param maxMachinePerType
+	 * @param states
+	 * @return the actions map
+	 */
+	public static Map<State, List<State>> buildActions(String[] types, int[] maxMachinePerType, List<State> states) {
+
+		int typesCount = types.length;
+		Map<String, Integer> typeIndex = new HashMap<String, Integer>();
+		for (int i=0; i<typesCount; ++i) {
+			typeIndex.put(types[i], i);
+		}
+
+		// weight of each coordinate in the mixed-radix key
+		int[] radixWeight = new int[typesCount];
+		int keysCount = 1;
+		for (int i=0; i<typesCount; ++i) {
+			radixWeight[i] = keysCount;
+			keysCount *= maxMachinePerType[i] + 1;
+		}
+
+		// perfect index: key -> position of the state in the list, -1 if missing
+		int[] keyToState = new int[keysCount];
+		Arrays.fill(keyToState, -1);
+		int[][] vectors = new int[states.size()][typesCount];
+		int[] keys = new int[states.size()];
+		for (int i=0; i<states.size(); ++i) {
+			encode(states.get(i).getConfiguration(), typeIndex, vectors[i]);
+			int key = 0;
+			for (int t=0; t<typesCount; ++t) {
+				key += vectors[i][t] * radixWeight[t];
+			}
+			keys[i] = key;
+			keyToState[key] = i;
+		}
+
+		boolean debug = logger.isDebugEnabled();
+		Map<State, List<State>> actions = new HashMap<State, List<State>>();
+		int[] near = new int[2*typesCount + 1];
+		for (int i=0; i<states.size(); ++i) {
+
+			// the state itself is at distance 0
+			int nearCount = 0;
+			near[nearCount++] = i;
+
+			for (int t=0; t<typesCount; ++t) {
+				if (vectors[i][t] > 0 && keyToState[keys[i] - radixWeight[t]] >= 0)
+					near[nearCount++] = keyToState[keys[i] - radixWeight[t]];
+				if (vectors[i][t] < maxMachinePerType[t] && keyToState[keys[i] + radixWeight[t]] >= 0)
+					near[nearCount++] = keyToState[keys[i] + radixWeight[t]];
+			}
+
+			// keep the order of the states list
+			Arrays.sort(near, 0, nearCount);
+
+			State currentState = states.get(i);
+			List<State> currentStateActionsList = new ArrayList<State>(nearCount);
+			for (int n=0; n<nearCount; ++n) {
+				currentStateActionsList.add(states.get(near[n]));
+				if (debug)
+					logger.debug("Inserted Action: {}->{}", currentState.getStateId(), states.get(near[n]));
+			}
+			actions.put(currentState, currentStateActionsList);
+		}
+
+		return actions;
+	}
+
+	/**
+	 * Build the actions map of a canonical state space, where the index of a
+	 * near state is computed directly from the mixed-radix key
+	 * @param stateSpace
+	 * @return the actions map
+	 */
+	public static Map<State, List<State>> buildActions(StateSpace stateSpace) {
+
+		int typesCount = stateSpace.getTypes().length;
+		int[] maxMachinePerType = stateSpace.getMaxMachinePerType();
+		List<State> states = stateSpace.getStates();
+
+		boolean debug = logger.isDebugEnabled();
+		Map<State, List<State>> actions = new HashMap<State, List<State>>();
+		int[] counts = new int[typesCount];
+		int[] near = new int[2*typesCount + 1];
+		for (int i=0; i<states.size(); ++i) {
+
+			stateSpace.getCounts(i, counts);
+			int nearCount = 0;
+			near[nearCount++] = i;
+
+			for (int t=0; t<typesCount; ++t) {
+				int weight = stateSpace.getRadixWeight(t);
+				// index i-weight is the empty configuration when it is -1
+				if (counts[t] > 0 && i - weight >= 0)
+					near[nearCount++] = i - weight;
+				if (counts[t] < maxMachinePerType[t])
+					near[nearCount++] = i + weight;
+			}
+
+			Arrays.sort(near, 0, nearCount);
+
+			State currentState = states.get(i);
+			List<State> currentStateActionsList = new ArrayList<State>(nearCount);
+			for (int n=0; n<nearCount; ++n) {
+				currentStateActionsList.add(states.get(near[n]));
+				if (debug)
+					logger.debug("Inserted Action: {}->{}", currentState.getStateId(), states.get(near[n]));
+			}
+			actions.put(currentState, currentStateActionsList);
+		}
+
+		return actions;
+	}
+
+}
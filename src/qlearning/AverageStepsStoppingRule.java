@@ -0,0 +1,65 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Stop when the avg step to reach a state near to the goal of a QLearning moved by
+ * at most a relative tolerance over the last window episodes. Unlike the rules on
+ * the Q deltas or the greedy actions it ignores the flickering between actions of
+ * almost the same value and only looks at how good the policy is, so it is the
+ * rule that tells when a warm started training has nothing left to learn.
+ * The avg is read from the convergence tracker of the QLearning after every episode.
+ *
+ * @author Federico Lombardi
+ */
+public class AverageStepsStoppingRule implements StoppingRule {
+
+	private QLearning qlearning;
+	private int window;
+	private double tolerance;
+	private double[] averages; // avg step after each of the last window episodes, circular
+	private int seenEpisodes;
+
+	/**
+	 * @param qlearning the QLearning the rule is set on
+	 * @param window number of consecutive episodes
+	 * @param tolerance highest (max-min)/min of the avg step over the window
+	 */
+	public AverageStepsStoppingRule(QLearning qlearning, int window, double tolerance) {
+		if (window < 1 || tolerance < 0D)
+			throw new IllegalArgumentException("The window must be positive and the tolerance not negative");
+		this.qlearning = qlearning;
+		this.window = window;
+		this.tolerance = tolerance;
+		this.averages = new double[window];
+	}
+
+	@Override
+	public boolean shouldStop(int episode, double maxQDelta, int policyChanges) {
+		this.averages[this.seenEpisodes % this.window] = this.qlearning.tracker.getAverageSteps();
+		++this.seenEpisodes;
+		if (this.seenEpisodes < this.window)
+			return false;
+		double min = this.averages[0];
+		double max = this.averages[0];
+		for (int i = 1; i < this.window; ++i) {
+			min = Math.min(min, this.averages[i]);
+			max = Math.max(max, this.averages[i]);
+		}
+		return max - min <= this.tolerance * min;
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(this.averages, 0D);
+		this.seenEpisodes = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "avgsteps(window=" + this.window + ", tolerance=" + this.tolerance + ")";
+	}
+
+}
@@ -0,0 +1,79 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Softmax selection: an action is chosen with probability proportional to
+ * exp(Q(s,a) / temperature). The temperature decays geometrically with the
+ * episodes, down to a minimum, moving from exploration to exploitation.
+ * The self loop is left out, as in EpsilonGreedyExploration, unless it is the only action.
+ *
+ * @author Federico Lombardi
+ */
+public class BoltzmannExploration implements ExplorationStrategy {
+
+	private double temperature;
+	private double decay;
+	private double minTemperature;
+
+	/**
+	 * @param temperature temperature of the first episode
+	 * @param decay factor applied to the temperature at every episode
+	 * @param minTemperature lower bound of the temperature
+	 */
+	public BoltzmannExploration(double temperature, double decay, double minTemperature) {
+		if (minTemperature <= 0 || minTemperature > temperature)
+			throw new IllegalArgumentException("It must be 0 < minTemperature <= temperature");
+		if (decay <= 0 || decay > 1)
+			throw new IllegalArgumentException("The decay must be in (0, 1]");
+		this.temperature = temperature;
+		this.decay = decay;
+		this.minTemperature = minTemperature;
+	}
+
+	/**
+	 * @param episode
+	 * @return the temperature of the episode
+	 */
+	public double getTemperature(int episode) {
+		return Math.max(this.minTemperature, this.temperature * Math.pow(this.decay, episode));
+	}
+
+	@Override
+	public int selectEdge(ActionGraph graph, double[] Q, int state, int episode, SplittableRandom rand) {
+		int first = graph.getFirstEdge(state);
+		int last = graph.getLastEdge(state);
+		double temperature = getTemperature(episode);
+
+		// subtract the max Q value so that exp never overflows
+		double maxQ = Double.NEGATIVE_INFINITY;
+		for (int e = first; e < last; ++e) {
+			if (graph.getTarget(e) != state)
+				maxQ = Math.max(maxQ, Q[e]);
+		}
+		double sum = 0D;
+		for (int e = first; e < last; ++e) {
+			if (graph.getTarget(e) != state)
+				sum += Math.exp((Q[e] - maxQ) / temperature);
+		}
+		double threshold = rand.nextDouble() * sum;
+		int chosen = -1;
+		for (int e = first; e < last; ++e) {
+			if (graph.getTarget(e) != state) {
+				chosen = e;
+				threshold -= Math.exp((Q[e] - maxQ) / temperature);
+				if (threshold < 0)
+					break;
+			}
+		}
+		return chosen < 0 ? first : chosen;
+	}
+
+	@Override
+	public String toString() {
+		return "boltzmann(temperature=" + this.temperature + ", decay=" + this.decay + ", min=" + this.minTemperature + ")";
+	}
+
+}
@@ -0,0 +1,151 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Q values of the visited states of a LazyStateSpace. Rows of a fixed width (one
+ * slot per near state, in the order of LazyStateSpace.getNear) are stored in an
+ * open-addressing table with linear probing keyed by the state index, backed by
+ * primitive arrays allocated once: the memory is fixed by the capacity, whatever
+ * the size of the state space. When the table is full the rows of new states are
+ * not stored; reading them gives 0 and writing them is counted as dropped.
+ * Rows are never removed.
+ *
+ * @author Federico Lombardi
+ */
+public class BoundedQTable {
+
+	private static final long EMPTY = -1L;
+
+	private int width;
+	private int capacity;
+	private int mask;
+	private long[] keys;
+	private double[] values;
+	private int size;
+	private long dropped;
+
+	/**
+	 * @param capacity maximum number of stored states
+	 * @param width number of Q values of a state
+	 */
+	public BoundedQTable(int capacity, int width) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		// keep the load factor under 3/4 so the probes stay short
+		int slots = Integer.highestOneBit(Math.max(2, capacity + capacity / 3) - 1) << 1;
+		if (slots <= 0 || (long) slots * width > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Capacity " + capacity + " is too large");
+		this.width = width;
+		this.capacity = capacity;
+		this.mask = slots - 1;
+		this.keys = new long[slots];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new double[slots * width];
+	}
+
+	/**
+	 * @param bytes memory budget of the table
+	 * @param width number of Q values of a state
+	 * @return the highest capacity whose table fits in the budget
+	 */
+	public static int capacityFor(long bytes, int width) {
+		long slots = Long.highestOneBit(Math.max(2L, bytes / (8L + 8L * width)));
+		slots = Math.min(slots, Integer.highestOneBit(Integer.MAX_VALUE / width));
+		return (int) (slots * 3 / 4);
+	}
+
+	/**
+	 * @param state
+	 * @return the offset of the row of the state in the values, -1 if the state is not stored
+	 */
+	public int find(long state) {
+		int slot = hash(state) & this.mask;
+		while (true) {
+			long key = this.keys[slot];
+			if (key == state)
+				return slot * this.width;
+			if (key == EMPTY)
+				return -1;
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	/**
+	 * @param state
+	 * @return the offset of the row of the state, added with all values 0 if missing,
+	 * -1 if the state is not stored and the table is full
+	 */
+	public int findOrAdd(long state) {
+		int slot = hash(state) & this.mask;
+		while (true) {
+			long key = this.keys[slot];
+			if (key == state)
+				return slot * this.width;
+			if (key == EMPTY) {
+				if (this.size == this.capacity) {
+					++this.dropped;
+					return -1;
+				}
+				this.keys[slot] = state;
+				++this.size;
+				return slot * this.width;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	/**
+	 * @param state
+	 * @param action slot of the action in the row
+	 * @return the Q value, 0 if the state is not stored
+	 */
+	public double get(long state, int action) {
+		int row = find(state);
+		return row < 0 ? 0D : this.values[row + action];
+	}
+
+	/**
+	 * @return the backing values, the row returned by find holds width values from its offset
+	 */
+	public double[] getValues() {
+		return this.values;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return number of stored states
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return number of rows that could not be added since the table was full
+	 */
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * @return approximate heap bytes of the backing arrays
+	 */
+	public long getMemoryBytes() {
+		return 8L * this.keys.length + 8L * this.values.length;
+	}
+
+	private static int hash(long state) {
+		long h = state * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
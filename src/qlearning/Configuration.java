@@ -1,49 +1,130 @@
 package qlearning;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Project of Learning in Autonomous Systems
+ *
+ * Number of running machines of each type of a MachineRegistry, stored as one
+ * byte per type. Cpu, price and hash are computed once at construction.
+ *
  * @author Federico Lombardi
  */
 public class Configuration {
 
 	private int configurationId;
-	private Map<Machine, Integer> machineMap;
+	private MachineRegistry registry;
+	private byte[] counts;
 	private int cpu;
+	private double price;
+	private int hash;
 	
-	public Configuration(int configurtionId, Map<Machine, Integer> machineMap) {
+	/**
+	 * @param configurtionId
+	 * @param registry machine types
+	 * @param counts number of machines of each registered type, at most Byte.MAX_VALUE
+	 */
+	public Configuration(int configurtionId, MachineRegistry registry, byte[] counts) {
+		if (counts.length != registry.size())
+			throw new IllegalArgumentException("The counts must have one value for each machine type");
 		this.configurationId = configurtionId;
-		this.machineMap = machineMap;
-		for (Machine m : this.machineMap.keySet()) {
-			this.cpu += m.getCpu() * machineMap.get(m);
+		this.registry = registry;
+		this.counts = counts;
+		for (int i=0; i<counts.length; ++i) {
+			this.cpu += registry.getMachine(i).getCpu() * counts[i];
+			this.price += registry.getMachine(i).getPrice() * counts[i];
 		}
+		this.hash = Arrays.hashCode(counts);
+	}
+	
+	/**
+	 * @param configurtionId
+	 * @param registry machine types
+	 * @param counts number of machines of each registered type
+	 */
+	public Configuration(int configurtionId, MachineRegistry registry, int[] counts) {
+		this(configurtionId, registry, toBytes(counts));
+	}
+	
+	private static byte[] toBytes(int[] counts) {
+		byte[] bytes = new byte[counts.length];
+		for (int i=0; i<counts.length; ++i) {
+			if (counts[i] < 0 || counts[i] > Byte.MAX_VALUE)
+				throw new IllegalArgumentException("Illegal number of machines " + counts[i]);
+			bytes[i] = (byte) counts[i];
+		}
+		return bytes;
 	}
 	
 	public int getConfigurationId() {
 		return this.configurationId;
 	}
 	
+	public MachineRegistry getRegistry() {
+		return this.registry;
+	}
+	
+	/**
+	 * @param type position of the machine type in the registry
+	 * @return number of machines of the type
+	 */
+	public int getCount(int type) {
+		return this.counts[type];
+	}
+	
+	/**
+	 * Map of the machines with at least one running instance, built on each call
+	 * @return the machine -> count map
+	 */
 	public Map<Machine, Integer> getMachineMap() {
-		return this.machineMap;
+		Map<Machine, Integer> machineMap = new HashMap<Machine, Integer>();
+		for (int i=0; i<this.counts.length; ++i) {
+			if (this.counts[i] > 0)
+				machineMap.put(this.registry.getMachine(i), (int) this.counts[i]);
+		}
+		return machineMap;
 	}
 	
 	public int getCpu() {
 		return this.cpu;
 	}
 	
+	public double getPrice() {
+		return this.price;
+	}
+	
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+	
+	/**
+	 * Configurations are equal when they have the same counts of the same registry
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Configuration))
+			return false;
+		Configuration other = (Configuration) obj;
+		return this.hash == other.hash && this.registry == other.registry && Arrays.equals(this.counts, other.counts);
+	}
+	
 	@Override
 	public String toString() {
-		String configuration = "Config. " + configurationId;
-		for (Machine m : this.machineMap.keySet()) {
-			if (configuration.equals("Config. " + configurationId))
-				configuration += ": [" + m.getType() + "*" + this.machineMap.get(m);
-			else
-				configuration += ", " + m.getType() + "*" + this.machineMap.get(m);
-				
+		StringBuilder configuration = new StringBuilder("Config. ").append(configurationId);
+		boolean first = true;
+		for (int i=0; i<this.counts.length; ++i) {
+			if (this.counts[i] == 0)
+				continue;
+			configuration.append(first ? ": [" : ", ").append(this.registry.getMachine(i).getType()).append('*').append(this.counts[i]);
+			first = false;
 		}
-		configuration += "]";
-		return configuration;
+		configuration.append(']');
+		return configuration.toString();
 	}
 	
 }
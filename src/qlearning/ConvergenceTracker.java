@@ -0,0 +1,251 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Incremental version of the "average steps to reach a goal" metric.
+ * The greedy policy (best action of each state, the self loop excluded) is kept
+ * up to date on every Q update by looking only at the row of the updated state.
+ * The distance of a state to the nearest terminal state is cached and, when the
+ * metric is requested, only the states whose policy changed and the states whose
+ * policy path goes through them are recomputed.
+ *
+ * The walk is deterministic: a state whose policy ends in a cycle is counted as
+ * UNREACHABLE_STEPS instead of being pushed out of the cycle with a random action.
+ * QLearning.stepToNearGoal gives the same steps for a single state through a PolicyRollout.
+ *
+ * @author Federico Lombardi
+ */
+public class ConvergenceTracker {
+
+	/** steps assigned to a state whose policy never reaches a terminal state */
+	public static final int UNREACHABLE_STEPS = 1000;
+
+	private static final int UNKNOWN = -1;
+
+	private ActionGraph graph;
+	private ActionGraph predecessors;
+	private double[] Q;
+	private boolean[] terminal;
+
+	private int[] policy; // best edge of each state, -1 if the state has no action
+	private int[] distance; // cached steps to a terminal state, UNKNOWN if invalid
+
+	private boolean[] changed;
+	private int[] changedStates;
+	private int changedCount;
+	private long policyChanges;
+
+	private int[] stack;
+	private int[] walkEpoch;
+	private int epoch;
+
+	/**
+	 * @param graph action adjacency
+	 * @param Q Q values indexed by edge, shared with the learner
+	 * @param terminal flag of the states where the walk stops
+	 */
+	public ConvergenceTracker(ActionGraph graph, double[] Q, boolean[] terminal) {
+		this(graph, graph.transpose(), Q, terminal);
+	}
+
+	/**
+	 * @param graph action adjacency
+	 * @param predecessors graph.transpose(), shared by the trackers of the same graph
+	 * @param Q Q values indexed by edge, shared with the learner
+	 * @param terminal flag of the states where the walk stops
+	 */
+	public ConvergenceTracker(ActionGraph graph, ActionGraph predecessors, double[] Q, boolean[] terminal) {
+		int statesCount = graph.getStatesCount();
+		this.graph = graph;
+		this.predecessors = predecessors;
+		this.Q = Q;
+		this.terminal = terminal;
+		this.policy = new int[statesCount];
+		this.distance = new int[statesCount];
+		this.changed = new boolean[statesCount];
+		this.changedStates = new int[statesCount];
+		this.stack = new int[statesCount];
+		this.walkEpoch = new int[statesCount];
+		reset();
+	}
+
+	/**
+	 * Recompute the whole policy from the Q values
+	 */
+	public void reset() {
+		for (int s = 0; s < this.policy.length; ++s) {
+			this.policy[s] = bestEdge(s);
+			this.changed[s] = false;
+		}
+		this.changedCount = 0;
+		Arrays.fill(this.distance, UNKNOWN);
+	}
+
+	/**
+	 * Notify that Q[edge] of the given state has been written
+	 * @param state index of the source state
+	 * @param edge
+	 */
+	public void update(int state, int edge) {
+		if (this.graph.getTarget(edge) == state)
+			return;
+
+		int best = this.policy[state];
+		int newBest;
+		if (best < 0 || this.Q[edge] > this.Q[best] || (edge < best && this.Q[edge] == this.Q[best]))
+			newBest = edge;
+		else if (edge == best)
+			newBest = bestEdge(state);
+		else
+			return;
+
+		this.policy[state] = newBest;
+		if (best < 0 || this.graph.getTarget(best) != this.graph.getTarget(newBest)) {
+			++this.policyChanges;
+			if (!this.changed[state]) {
+				this.changed[state] = true;
+				this.changedStates[this.changedCount++] = state;
+			}
+		}
+	}
+
+	/**
+	 * @param state index of the state
+	 * @return index of the state chosen by the greedy policy, the state itself if it has no action
+	 */
+	public int getPolicy(int state) {
+		return this.policy[state] < 0 ? state : this.graph.getTarget(this.policy[state]);
+	}
+
+	/**
+	 * @return number of states whose policy changed since the last evaluation
+	 */
+	public int getChangedCount() {
+		return this.changedCount;
+	}
+
+	/**
+	 * @return number of greedy action changes seen since the tracker was created
+	 */
+	public long getPolicyChanges() {
+		return this.policyChanges;
+	}
+
+	/**
+	 * @param state index of the state
+	 * @return steps needed by the greedy policy to reach a terminal state
+	 */
+	public int getSteps(int state) {
+		refresh();
+		return this.distance[state];
+	}
+
+	/**
+	 * Average of the steps to reach a terminal state, where a state that
+	 * is already terminal counts as one step (as in the original metric)
+	 * @return the average over all the states
+	 */
+	public double getAverageSteps() {
+		refresh();
+		double sumStep = 0D;
+		for (int s = 0; s < this.distance.length; ++s) {
+			sumStep += this.distance[s] == 0 ? 1 : this.distance[s];
+		}
+		return sumStep / this.distance.length;
+	}
+
+	/**
+	 * Invalidate the distances depending on a changed policy and recompute them
+	 */
+	private void refresh() {
+
+		// invalidate the changed states and, backward, every state whose policy leads to them
+		for (int c = 0; c < this.changedCount; ++c) {
+			int s = this.changedStates[c];
+			this.changed[s] = false;
+			if (this.terminal[s] || this.distance[s] == UNKNOWN)
+				continue;
+			int top = 0;
+			this.distance[s] = UNKNOWN;
+			this.stack[top++] = s;
+			while (top > 0) {
+				int current = this.stack[--top];
+				for (int e = this.predecessors.getFirstEdge(current); e < this.predecessors.getLastEdge(current); ++e) {
+					int p = this.predecessors.getTarget(e);
+					if (this.distance[p] != UNKNOWN && !this.terminal[p] && getPolicy(p) == current) {
+						this.distance[p] = UNKNOWN;
+						this.stack[top++] = p;
+					}
+				}
+			}
+		}
+		this.changedCount = 0;
+
+		for (int s = 0; s < this.distance.length; ++s) {
+			if (this.distance[s] == UNKNOWN)
+				walk(s);
+		}
+	}
+
+	/**
+	 * Follow the policy from the state until a known distance, a terminal state or
+	 * a cycle is found, then assign the distances backward along the path
+	 * @param start
+	 */
+	private void walk(int start) {
+		if (++this.epoch == 0) {
+			// the stamps wrapped around, forget all of them
+			Arrays.fill(this.walkEpoch, 0);
+			this.epoch = 1;
+		}
+		int length = 0;
+		int current = start;
+		int steps;
+		while (true) {
+			if (this.terminal[current]) {
+				steps = 0;
+				break;
+			}
+			if (this.distance[current] != UNKNOWN) {
+				steps = this.distance[current];
+				break;
+			}
+			if (this.walkEpoch[current] == this.epoch) {
+				steps = UNREACHABLE_STEPS;
+				break;
+			}
+			this.walkEpoch[current] = this.epoch;
+			this.stack[length++] = current;
+			if (getPolicy(current) == current) {
+				steps = UNREACHABLE_STEPS;
+				break;
+			}
+			current = getPolicy(current);
+		}
+		if (this.terminal[current])
+			this.distance[current] = 0;
+		while (length > 0) {
+			int s = this.stack[--length];
+			if (steps < UNREACHABLE_STEPS)
+				++steps;
+			this.distance[s] = steps;
+		}
+	}
+
+	/**
+	 * @param state
+	 * @return the edge with the highest Q value, the self loop excluded, -1 if none
+	 */
+	private int bestEdge(int state) {
+		int best = -1;
+		for (int e = this.graph.getFirstEdge(state); e < this.graph.getLastEdge(state); ++e) {
+			if (this.graph.getTarget(e) != state && (best < 0 || this.Q[e] > this.Q[best]))
+				best = e;
+		}
+		return best;
+	}
+
+}
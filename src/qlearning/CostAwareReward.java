@@ -0,0 +1,56 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Reward that also charges the price of the reached configuration and the time
+ * spent to move there: every machine booted or released costs its provisioning
+ * latency, so the policy prefers cheap configurations and few slow scale actions.
+ * Keeping the current configuration (the self loop) has no transition cost.
+ *
+ * @author Federico Lombardi
+ */
+public class CostAwareReward implements RewardFunction {
+
+	private RewardFunction base;
+	private double priceWeight;
+	private double latencyWeight;
+
+	/**
+	 * @param base reward of the reached capacity
+	 * @param priceWeight reward lost for each unit of price of the reached configuration
+	 * @param latencyWeight reward lost for each second of provisioning
+	 */
+	public CostAwareReward(RewardFunction base, double priceWeight, double latencyWeight) {
+		this.base = base;
+		this.priceWeight = priceWeight;
+		this.latencyWeight = latencyWeight;
+	}
+
+	@Override
+	public double reward(State s, State a) {
+		return this.base.reward(s, a)
+				- this.priceWeight * a.getConfiguration().getPrice()
+				- this.latencyWeight * transitionLatency(s.getConfiguration(), a.getConfiguration());
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the seconds spent booting and releasing the machines that differ
+	 */
+	static int transitionLatency(Configuration from, Configuration to) {
+		MachineRegistry registry = to.getRegistry();
+		int latency = 0;
+		for (int i=0; i<registry.size(); ++i) {
+			latency += registry.getMachine(i).getProvisioningLatency() * Math.abs(to.getCount(i) - from.getCount(i));
+		}
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		return "cost aware (" + base + ", price weight " + priceWeight + ", latency weight " + latencyWeight + ")";
+	}
+
+}
@@ -0,0 +1,33 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Original reward: the maximum reward for reaching the goal cpu, decreased by
+ * maxReward/penalty for each cpu of distance of the reached state from the goal.
+ *
+ * @author Federico Lombardi
+ */
+public class CpuDistanceReward implements RewardFunction {
+
+	private int goalCpu;
+	private int maxReward;
+	private int penalty;
+
+	public CpuDistanceReward(int goalCpu, int maxReward, int penalty) {
+		this.goalCpu = goalCpu;
+		this.maxReward = maxReward;
+		this.penalty = penalty;
+	}
+
+	@Override
+	public double reward(State s, State a) {
+		return this.maxReward - (this.maxReward/this.penalty)*Math.abs(this.goalCpu - a.getCpu());
+	}
+
+	@Override
+	public String toString() {
+		return "cpu distance (goal " + goalCpu + ", max " + maxReward + ", penalty " + penalty + ")";
+	}
+
+}
@@ -0,0 +1,150 @@
+package qlearning;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Asynchronous tab-separated writer of the training metrics. The training thread
+ * only copies the record into a single-producer/single-consumer ring of primitive
+ * arrays; a background thread drains it in batches through a buffered writer.
+ * When the ring is full the record is dropped (and counted) instead of blocking
+ * the training. Each line is: episode, avg steps, steps, max Q delta, wall time (ms),
+ * so the first two columns are the same of the old res.csv.
+ *
+ * @author Federico Lombardi
+ */
+public class CsvMetricsSink implements TrainingMetricsSink {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	static final int DEFAULT_CAPACITY = 1 << 13;
+
+	private final int[] episodes;
+	private final int[] steps;
+	private final double[] avgSteps;
+	private final double[] maxQDeltas;
+	private final long[] wallTimes;
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong(); // next record to write, owned by the writer thread
+	private final AtomicLong tail = new AtomicLong(); // next free slot, owned by the training thread
+	private long dropped;
+
+	private final Writer writer;
+	private final Thread writerThread;
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	public CsvMetricsSink(File file) throws FileNotFoundException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param file output file, overwritten
+	 * @param capacity number of records buffered, rounded up to a power of 2
+	 * @throws FileNotFoundException
+	 */
+	public CsvMetricsSink(File file, int capacity) throws FileNotFoundException {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.episodes = new int[size];
+		this.steps = new int[size];
+		this.avgSteps = new double[size];
+		this.maxQDeltas = new double[size];
+		this.wallTimes = new long[size];
+		this.mask = size - 1;
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainLoop();
+			}
+		}, "metrics-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void record(int episode, int steps, double avgSteps, double maxQDelta, long wallTimeNanos) {
+		if (this.failure != null)
+			return;
+		long t = this.tail.get();
+		if (t - this.head.get() > this.mask) {
+			++this.dropped;
+			return;
+		}
+		int i = (int) (t & this.mask);
+		this.episodes[i] = episode;
+		this.steps[i] = steps;
+		this.avgSteps[i] = avgSteps;
+		this.maxQDeltas[i] = maxQDelta;
+		this.wallTimes[i] = wallTimeNanos;
+		this.tail.lazySet(t + 1);
+	}
+
+	private void drainLoop() {
+		try {
+			while (true) {
+				boolean closing = this.closed;
+				long h = this.head.get();
+				long t = this.tail.get();
+				if (h == t) {
+					if (closing)
+						break;
+					this.writer.flush();
+					LockSupport.parkNanos(1000000L);
+					continue;
+				}
+				for (; h < t; ++h) {
+					int i = (int) (h & this.mask);
+					this.writer.write(this.episodes[i] + "\t" + this.avgSteps[i] + "\t" + this.steps[i] + "\t"
+							+ this.maxQDeltas[i] + "\t" + this.wallTimes[i] / 1000000.0 + "\n");
+				}
+				this.head.lazySet(t);
+			}
+			this.writer.flush();
+		}
+		catch (IOException e) {
+			// the following records are discarded by record()
+			this.failure = e;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (this.closed)
+			return;
+		this.closed = true;
+		LockSupport.unpark(this.writerThread);
+		try {
+			this.writerThread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.writer.close();
+		}
+		catch (IOException e) {
+			if (this.failure == null)
+				this.failure = e;
+		}
+		if (this.failure != null)
+			logger.error("Error writing the training metrics: " + this.failure.getMessage());
+		if (this.dropped > 0)
+			logger.warn("Dropped " + this.dropped + " training metrics records, the writer was too slow.");
+	}
+
+}
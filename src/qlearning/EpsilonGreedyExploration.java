@@ -0,0 +1,62 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Select a random action with probability epsilon and the action with the highest
+ * Q value otherwise. Epsilon decays geometrically with the episodes, down to a minimum.
+ * As in the greedy policy of the ConvergenceTracker, the self loop is excluded from the
+ * greedy choice: staying near the goal is rewarded, so it would never end the episode.
+ *
+ * @author Federico Lombardi
+ */
+public class EpsilonGreedyExploration implements ExplorationStrategy {
+
+	private double epsilon;
+	private double decay;
+	private double minEpsilon;
+
+	/**
+	 * @param epsilon probability of a random action in the first episode
+	 * @param decay factor applied to epsilon at every episode
+	 * @param minEpsilon lower bound of epsilon
+	 */
+	public EpsilonGreedyExploration(double epsilon, double decay, double minEpsilon) {
+		if (epsilon < 0 || epsilon > 1 || minEpsilon < 0 || minEpsilon > epsilon)
+			throw new IllegalArgumentException("It must be 0 <= minEpsilon <= epsilon <= 1");
+		if (decay <= 0 || decay > 1)
+			throw new IllegalArgumentException("The decay must be in (0, 1]");
+		this.epsilon = epsilon;
+		this.decay = decay;
+		this.minEpsilon = minEpsilon;
+	}
+
+	/**
+	 * @param episode
+	 * @return the probability of a random action in the episode
+	 */
+	public double getEpsilon(int episode) {
+		return Math.max(this.minEpsilon, this.epsilon * Math.pow(this.decay, episode));
+	}
+
+	@Override
+	public int selectEdge(ActionGraph graph, double[] Q, int state, int episode, SplittableRandom rand) {
+		int first = graph.getFirstEdge(state);
+		if (rand.nextDouble() < getEpsilon(episode))
+			return first + rand.nextInt(graph.getDegree(state));
+		int best = -1;
+		for (int e = first; e < graph.getLastEdge(state); ++e) {
+			if (graph.getTarget(e) != state && (best < 0 || Q[e] > Q[best]))
+				best = e;
+		}
+		return best < 0 ? first : best;
+	}
+
+	@Override
+	public String toString() {
+		return "egreedy(epsilon=" + this.epsilon + ", decay=" + this.decay + ", min=" + this.minEpsilon + ")";
+	}
+
+}
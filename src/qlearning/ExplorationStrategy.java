@@ -0,0 +1,25 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Action selection used by the training episodes. Implementations are called
+ * concurrently by the parallel workers, so they must not keep mutable state.
+ *
+ * @author Federico Lombardi
+ */
+public interface ExplorationStrategy {
+
+	/**
+	 * @param graph action adjacency
+	 * @param Q Q values indexed by edge
+	 * @param state index of the current state
+	 * @param episode number of the current episode, for the strategies that decay with time
+	 * @param rand
+	 * @return the edge of the selected action, between graph.getFirstEdge(state) and graph.getLastEdge(state)
+	 */
+	int selectEdge(ActionGraph graph, double[] Q, int state, int episode, SplittableRandom rand);
+
+}
@@ -0,0 +1,148 @@
+package qlearning;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Samples read from a text file another process appends to, one per line with the
+ * demand as last field, as in the traces of the TraceSimulator. The new bytes are
+ * read into a buffer of MAX_LINE_BYTES allocated once and parsed in place; a longer
+ * line is skipped up to its new line. When the file has no complete new line the
+ * source polls it every POLL_NANOS (follow mode) or ends. A file truncated by a log
+ * rotation is read again from the beginning.
+ *
+ * @author Federico Lombardi
+ */
+public class FileTailSource implements SampleSource {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	static final long POLL_NANOS = 100 * 1000000L;
+
+	static final int MAX_LINE_BYTES = 1 << 16;
+
+	private FileChannel channel;
+	private boolean follow;
+	private volatile boolean closed;
+
+	private final byte[] buffer = new byte[MAX_LINE_BYTES];
+	private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+	private int start; // first unread byte of the buffer
+	private int scan; // first byte not yet searched for a new line
+	private int end; // end of the bytes read
+	private long position; // offset of the file after the bytes read
+	private long skippedLines;
+	private boolean overlong; // the bytes up to the next new line belong to a line too long
+
+	/**
+	 * @param file
+	 * @param follow true to wait for the lines appended after the end of the file
+	 * @throws IOException
+	 */
+	public FileTailSource(File file, boolean follow) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.follow = follow;
+	}
+
+	@Override
+	public double take() throws InterruptedException {
+		try {
+			while (!this.closed) {
+				for (int i = this.scan; i < this.end; i++) {
+					if (this.buffer[i] == '\n') {
+						double demand = this.overlong ? Double.NaN : TraceSimulator.demand(this.wrapped, this.start, i);
+						this.start = i + 1;
+						this.scan = i + 1;
+						if (!Double.isNaN(demand))
+							return demand;
+						if (!this.overlong)
+							++this.skippedLines;
+						this.overlong = false;
+					}
+				}
+				this.scan = this.end;
+				if (read())
+					continue;
+				if (!this.follow) {
+					// the last line may have no new line
+					double demand = this.overlong ? Double.NaN : TraceSimulator.demand(this.wrapped, this.start, this.end);
+					if (this.start < this.end && Double.isNaN(demand) && !this.overlong)
+						++this.skippedLines;
+					this.start = this.end;
+					close();
+					return demand;
+				}
+				LockSupport.parkNanos(POLL_NANOS);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+		}
+		catch (IOException e) {
+			if (!this.closed)
+				logger.error("Error reading the samples: " + e.getMessage());
+			close();
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Append the new bytes of the file to the buffer
+	 * @return false if the file has no new bytes
+	 */
+	private boolean read() throws IOException {
+		if (this.channel.size() < this.position) {
+			// truncated, start again from its beginning
+			this.position = 0;
+			this.start = this.scan = this.end = 0;
+			this.overlong = false;
+		}
+		if (this.start > 0) {
+			System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+			this.end -= this.start;
+			this.scan -= this.start;
+			this.start = 0;
+		}
+		if (this.end == this.buffer.length) {
+			// the whole buffer is one line without its new line: drop it and skip the rest
+			if (!this.overlong)
+				++this.skippedLines;
+			this.overlong = true;
+			this.start = this.scan = this.end = 0;
+		}
+		this.wrapped.limit(this.buffer.length).position(this.end);
+		int n = this.channel.read(this.wrapped, this.position);
+		if (n <= 0)
+			return false;
+		this.position += n;
+		this.end += n;
+		return true;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		try {
+			this.channel.close();
+		}
+		catch (IOException e) {
+			logger.warn("Error closing the samples file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return lines without a demand
+	 */
+	public long getSkippedLines() {
+		return this.skippedLines;
+	}
+
+}
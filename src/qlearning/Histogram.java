@@ -0,0 +1,127 @@
+package qlearning;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Lock-free histogram of non negative long values (e.g. nanoseconds) with
+ * HDR-style log-linear buckets: every power of two is split in SUB_BUCKETS
+ * linear buckets, so a recorded value is known within 1/SUB_BUCKETS of itself
+ * (about 6%) with a fixed array of counters, whatever the range of the values.
+ * Recording is a bucket computation and one atomic increment.
+ *
+ * @author Federico Lombardi
+ */
+public class Histogram {
+
+	static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private AtomicLongArray counts;
+
+	public Histogram() {
+		// values under SUB_BUCKETS have a bucket each, then SUB_BUCKETS buckets per power of two
+		this.counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	}
+
+	/**
+	 * @param value negative values are recorded as 0
+	 */
+	public void record(long value) {
+		this.counts.incrementAndGet(bucket(Math.max(0L, value)));
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		// the SUB_BUCKET_BITS+1 highest bits select the bucket
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return the highest value falling in the bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Copy of the counters, consistent enough for monitoring while values are recorded
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[this.counts.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = this.counts.get(i);
+		}
+		return new Snapshot(copy);
+	}
+
+	public void reset() {
+		for (int i = 0; i < this.counts.length(); i++) {
+			this.counts.set(i, 0L);
+		}
+	}
+
+	/**
+	 * Immutable copy of the counters of a histogram
+	 */
+	public static class Snapshot {
+
+		private long[] counts;
+		private long count;
+		private double mean;
+		private long max;
+
+		Snapshot(long[] counts) {
+			this.counts = counts;
+			double sum = 0D;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					this.count += counts[i];
+					sum += (double) counts[i] * upperBound(i);
+					this.max = upperBound(i);
+				}
+			}
+			this.mean = this.count == 0 ? 0D : sum / this.count;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return the mean, computed from the bucket bounds
+		 */
+		public double getMean() {
+			return this.mean;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the upper bound of the bucket holding the percentile, 0 if empty
+		 */
+		public long getValueAtPercentile(double percentile) {
+			long rank = (long) Math.ceil(percentile / 100D * this.count);
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank && seen > 0)
+					return upperBound(i);
+			}
+			return 0L;
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Binary max-heap of the indices 0..capacity-1 keyed by a double priority.
+ * The position of every index in the heap is kept in an array, so the priority
+ * of an index already queued is changed in place instead of queueing it twice.
+ * Everything is stored in primitive arrays allocated once.
+ *
+ * @author Federico Lombardi
+ */
+public class IndexedMaxHeap {
+
+	private int[] heap; // indices ordered as a binary heap
+	private int[] position; // position of each index in the heap, -1 if not queued
+	private double[] priority;
+	private int size;
+
+	/**
+	 * @param capacity indices go from 0 to capacity-1
+	 */
+	public IndexedMaxHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.position = new int[capacity];
+		this.priority = new double[capacity];
+		for (int i = 0; i < capacity; ++i) {
+			this.position[i] = -1;
+		}
+	}
+
+	/**
+	 * Queue the index or change its priority if already queued
+	 * @param index
+	 * @param priority
+	 */
+	public void push(int index, double priority) {
+		int pos = this.position[index];
+		if (pos < 0) {
+			pos = this.size++;
+			this.heap[pos] = index;
+			this.position[index] = pos;
+			this.priority[index] = priority;
+			siftUp(pos);
+		}
+		else {
+			double old = this.priority[index];
+			this.priority[index] = priority;
+			if (priority > old)
+				siftUp(pos);
+			else
+				siftDown(pos);
+		}
+	}
+
+	/**
+	 * @return the index with the highest priority, removed from the heap
+	 */
+	public int pop() {
+		if (this.size == 0)
+			throw new IllegalStateException("The heap is empty");
+		int top = this.heap[0];
+		this.position[top] = -1;
+		if (--this.size > 0) {
+			int last = this.heap[this.size];
+			this.heap[0] = last;
+			this.position[last] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * @return the highest priority, the heap must not be empty
+	 */
+	public double peekPriority() {
+		return this.priority[this.heap[0]];
+	}
+
+	/**
+	 * @param index
+	 * @return the priority of a queued index
+	 */
+	public double getPriority(int index) {
+		return this.priority[index];
+	}
+
+	public boolean contains(int index) {
+		return this.position[index] >= 0;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	private void siftUp(int pos) {
+		int index = this.heap[pos];
+		double p = this.priority[index];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			int parentIndex = this.heap[parent];
+			if (this.priority[parentIndex] >= p)
+				break;
+			this.heap[pos] = parentIndex;
+			this.position[parentIndex] = pos;
+			pos = parent;
+		}
+		this.heap[pos] = index;
+		this.position[index] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int index = this.heap[pos];
+		double p = this.priority[index];
+		int half = this.size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int childIndex = this.heap[child];
+			int right = child + 1;
+			if (right < this.size && this.priority[this.heap[right]] > this.priority[childIndex]) {
+				child = right;
+				childIndex = this.heap[right];
+			}
+			if (p >= this.priority[childIndex])
+				break;
+			this.heap[pos] = childIndex;
+			this.position[childIndex] = pos;
+			pos = child;
+		}
+		this.heap[pos] = index;
+		this.position[index] = pos;
+	}
+
+}
@@ -0,0 +1,193 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Q-learning over a LazyStateSpace: states are indices decoded on demand, the near
+ * states are computed on the fly and the Q values are kept in a BoundedQTable only
+ * for the states visited by the training, so the memory is fixed by the table
+ * capacity instead of the size of the state space. Rewards, goal and update rule
+ * are the ones of QLearning with uniform exploration.
+ *
+ * @author Federico Lombardi
+ */
+public class LazyQLearning {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	final double alpha = 0.1;
+	final double gamma = 0.9;
+	int episodes = 2000;
+
+	private LazyStateSpace stateSpace;
+	private BoundedQTable table;
+	private int cpu;
+	private int maxReward;
+	private int penalty;
+	private boolean onlyGoalStates;
+	private int maxEpisodeSteps = 10000;
+	private TrainingMetricsSink metricsSink = NoOpMetricsSink.INSTANCE;
+	private double episodeMaxQDelta; // highest |Q change| of the last episode
+
+	// buffers of the near states of the current and of the next state
+	private long[] near;
+	private long[] nextNear;
+
+	/**
+	 * @param stateSpace
+	 * @param cpu goal cpu
+	 * @param penalizationFactor
+	 * @param onlyGoalStates
+	 * @param capacity maximum number of states whose Q values are kept
+	 */
+	public LazyQLearning(LazyStateSpace stateSpace, int cpu, int penalizationFactor, boolean onlyGoalStates, int capacity) {
+		if (cpu < 1 || cpu > stateSpace.getMaxCpu())
+			throw new IllegalArgumentException("Goal cpu " + cpu + " is out of the state space");
+		this.stateSpace = stateSpace;
+		this.table = new BoundedQTable(capacity, stateSpace.getMaxDegree());
+		this.cpu = cpu;
+		this.onlyGoalStates = onlyGoalStates;
+		this.maxReward = (cpu - 1) * penalizationFactor;
+		this.penalty = (int) Math.round(Math.sqrt(penalizationFactor));
+		this.near = new long[stateSpace.getMaxDegree()];
+		this.nextNear = new long[stateSpace.getMaxDegree()];
+	}
+
+	public BoundedQTable getTable() {
+		return this.table;
+	}
+
+	public int getGoalCpu() {
+		return this.cpu;
+	}
+
+	/**
+	 * @param maxEpisodeSteps steps after which an episode is stopped without reaching a goal state
+	 */
+	public void setMaxEpisodeSteps(int maxEpisodeSteps) {
+		this.maxEpisodeSteps = maxEpisodeSteps;
+	}
+
+	public void setMetricsSink(TrainingMetricsSink metricsSink) {
+		this.metricsSink = metricsSink;
+	}
+
+	/**
+	 * Train from random initial states, on the calling thread
+	 */
+	public void run() {
+		logger.info("Lazy Q-Learning is running on {} states..", stateSpace.getStatesCount());
+		SplittableRandom rand = new SplittableRandom();
+		long begin = System.nanoTime();
+		for (int i = 0; i < episodes; i++) {
+			long stateIndex = rand.nextLong(stateSpace.getStatesCount());
+			int steps = runEpisode(stateIndex, rand);
+			metricsSink.record(i, steps, Double.NaN, episodeMaxQDelta, System.nanoTime() - begin);
+		}
+		metricsSink.close();
+		logger.info("Stored Q values of {} states ({} MB), {} updates dropped since the table was full.",
+				table.size(), table.getMemoryBytes() / (1024 * 1024), table.getDropped());
+	}
+
+	/**
+	 * Walk with random actions from the state until a goal state
+	 * @param stateIndex
+	 * @param rand
+	 * @return the steps of the episode
+	 */
+	int runEpisode(long stateIndex, SplittableRandom rand) {
+		double[] Q = table.getValues();
+		episodeMaxQDelta = 0D;
+		int degree = stateSpace.getNear(stateIndex, near);
+		int steps = 0;
+		while (stateSpace.getCpu(stateIndex) != cpu && steps < maxEpisodeSteps) {
+			int action = rand.nextInt(degree);
+			long nextState = near[action];
+			int nextCpu = stateSpace.getCpu(nextState);
+			int nextDegree = stateSpace.getNear(nextState, nextNear);
+
+			int row = table.findOrAdd(stateIndex);
+			if (row >= 0) {
+				double q = Q[row + action];
+				double maxQ = nextCpu == cpu ? Double.MIN_VALUE : getMaxQ(nextState, nextDegree);
+				double value = q + alpha * (reward(nextCpu) + gamma * maxQ - q);
+				Q[row + action] = value;
+				episodeMaxQDelta = Math.max(episodeMaxQDelta, Math.abs(value - q));
+			}
+
+			long[] swap = near;
+			near = nextNear;
+			nextNear = swap;
+			degree = nextDegree;
+			stateIndex = nextState;
+			steps++;
+		}
+		return steps;
+	}
+
+	private double reward(int nextCpu) {
+		if (onlyGoalStates)
+			return nextCpu == cpu ? maxReward : 0;
+		return maxReward - (maxReward/penalty)*Math.abs(cpu - nextCpu);
+	}
+
+	private double getMaxQ(long stateIndex, int degree) {
+		double maxValue = Double.MIN_VALUE;
+		int row = table.find(stateIndex);
+		if (row < 0)
+			return maxValue;
+		double[] Q = table.getValues();
+		for (int a = 0; a < degree; a++) {
+			if (Q[row + a] > maxValue)
+				maxValue = Q[row + a];
+		}
+		return maxValue;
+	}
+
+	/**
+	 * Same rule of QLearning.getPolicy: the action with the highest positive Q value
+	 * @param stateIndex
+	 * @return index of the state to go to, the state itself if not found or not visited
+	 */
+	public long getPolicy(long stateIndex) {
+		long[] near = new long[stateSpace.getMaxDegree()];
+		int degree = stateSpace.getNear(stateIndex, near);
+		int row = table.find(stateIndex);
+		if (row < 0)
+			return stateIndex;
+		double[] Q = table.getValues();
+		double maxValue = Double.MIN_VALUE;
+		long policyGotoState = stateIndex;
+		for (int a = 0; a < degree; a++) {
+			if (Q[row + a] > maxValue) {
+				maxValue = Q[row + a];
+				policyGotoState = near[a];
+			}
+		}
+		return policyGotoState;
+	}
+
+	/**
+	 * Log the states visited by the greedy policy from the given state
+	 * @param stateIndex
+	 * @param maxSteps
+	 */
+	public void showPolicy(long stateIndex, int maxSteps) {
+		logger.info("showPolicy from {}", stateSpace.getState(stateIndex));
+		if (table.find(stateIndex) < 0 && stateSpace.getCpu(stateIndex) != cpu)
+			logger.info("the state has not been visited by the training");
+		for (int step = 0; step < maxSteps && stateSpace.getCpu(stateIndex) != cpu; step++) {
+			long to = getPolicy(stateIndex);
+			if (to == stateIndex)
+				break;
+			logger.info("goto {}", stateSpace.getState(to));
+			stateIndex = to;
+		}
+	}
+
+}
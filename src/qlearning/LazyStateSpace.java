@@ -0,0 +1,168 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * State space that is never materialized. A state is only its index in the
+ * mixed-radix enumeration of StateSpace (index = key-1, the first type is the
+ * least significant digit), and its machine counts, cpu and near states are
+ * computed from the index when needed. Memory does not depend on the number of
+ * states, so fleets with billions of configurations can be addressed.
+ *
+ * @author Federico Lombardi
+ */
+public class LazyStateSpace {
+
+	private String[] types;
+	private int[] maxMachinePerType;
+	private long[] radixWeight;
+	private Machine[] machines;
+	private MachineRegistry registry;
+	private long statesCount;
+	private int maxCpu;
+
+	/**
+	 * @param types
+	 * @param maxMachinePerType
+	 */
+	public LazyStateSpace(String[] types, int[] maxMachinePerType) {
+		if (types.length != maxMachinePerType.length)
+			throw new IllegalArgumentException("The array types and maxMachinePerTypes must have the same length!");
+
+		this.types = types;
+		this.maxMachinePerType = maxMachinePerType;
+		this.radixWeight = new long[types.length];
+		this.machines = new Machine[types.length];
+		long keysCount = 1;
+		for (int i=0; i<types.length; ++i) {
+			this.radixWeight[i] = keysCount;
+			if (keysCount > Long.MAX_VALUE / (maxMachinePerType[i] + 1))
+				throw new IllegalArgumentException("Too many states for the given types and maxMachinePerTypes arrays");
+			keysCount *= maxMachinePerType[i] + 1;
+			this.machines[i] = new Machine(types[i], i+1);
+			this.maxCpu += this.machines[i].getCpu() * maxMachinePerType[i];
+		}
+		this.registry = new MachineRegistry(this.machines);
+		// skip the configuration 0
+		this.statesCount = keysCount - 1;
+	}
+
+	public String[] getTypes() {
+		return this.types;
+	}
+
+	public int[] getMaxMachinePerType() {
+		return this.maxMachinePerType;
+	}
+
+	public long getStatesCount() {
+		return this.statesCount;
+	}
+
+	public int getMaxCpu() {
+		return this.maxCpu;
+	}
+
+	/**
+	 * @return the highest number of actions of a state, the self loop included
+	 */
+	public int getMaxDegree() {
+		return 2 * this.types.length + 1;
+	}
+
+	/**
+	 * @param counts number of machines for each type
+	 * @return the index of the state, -1 if the vector is out of the space
+	 */
+	public long indexOf(int[] counts) {
+		long key = 0;
+		for (int i=0; i<this.types.length; ++i) {
+			if (counts[i] < 0 || counts[i] > this.maxMachinePerType[i])
+				return -1;
+			key += counts[i] * this.radixWeight[i];
+		}
+		return key - 1;
+	}
+
+	/**
+	 * @param configuration a configuration of machines of the same types
+	 * @return the index of the state, -1 if the configuration is out of the space
+	 */
+	public long indexOf(Configuration configuration) {
+		int[] counts = new int[this.types.length];
+		MachineRegistry other = configuration.getRegistry();
+		for (int i=0; i<other.size(); ++i) {
+			int type = this.registry.indexOf(other.getMachine(i).getType());
+			if (type < 0)
+				return -1;
+			counts[type] = configuration.getCount(i);
+		}
+		return indexOf(counts);
+	}
+
+	/**
+	 * Fill counts with the number of machines of each type of the state at the given index
+	 * @param index
+	 * @param counts
+	 */
+	public void getCounts(long index, int[] counts) {
+		long key = index + 1;
+		for (int i=0; i<this.types.length; ++i) {
+			counts[i] = (int) (key % (this.maxMachinePerType[i] + 1));
+			key /= this.maxMachinePerType[i] + 1;
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the cpu of the state at the given index
+	 */
+	public int getCpu(long index) {
+		long key = index + 1;
+		int cpu = 0;
+		for (int i=0; i<this.types.length; ++i) {
+			cpu += this.machines[i].getCpu() * (int) (key % (this.maxMachinePerType[i] + 1));
+			key /= this.maxMachinePerType[i] + 1;
+		}
+		return cpu;
+	}
+
+	/**
+	 * Compute the near states of a state, itself included, in increasing index order
+	 * as in ActionGraphBuilder.buildActions(StateSpace)
+	 * @param index
+	 * @param near filled with the indices of the near states, at least getMaxDegree() long
+	 * @return the number of near states
+	 */
+	public int getNear(long index, long[] near) {
+		long key = index + 1;
+		int nearCount = 0;
+		// a lower type has a lower weight, so the removals are added from the highest type
+		for (int t=this.types.length-1; t>=0; --t) {
+			long count = (key / this.radixWeight[t]) % (this.maxMachinePerType[t] + 1);
+			// index-weight is the empty configuration when it is -1
+			if (count > 0 && index - this.radixWeight[t] >= 0)
+				near[nearCount++] = index - this.radixWeight[t];
+		}
+		near[nearCount++] = index;
+		for (int t=0; t<this.types.length; ++t) {
+			long count = (key / this.radixWeight[t]) % (this.maxMachinePerType[t] + 1);
+			if (count < this.maxMachinePerType[t])
+				near[nearCount++] = index + this.radixWeight[t];
+		}
+		return nearCount;
+	}
+
+	/**
+	 * Materialize a single state, e.g. to show it
+	 * @param index
+	 * @return a State with the given index+1 as id
+	 */
+	public State getState(long index) {
+		int[] counts = new int[this.types.length];
+		getCounts(index, counts);
+		int id = index + 1 > Integer.MAX_VALUE ? -1 : (int) (index + 1);
+		return new State(id, new Configuration(id, this.registry, counts));
+	}
+
+}
@@ -0,0 +1,308 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Approximate Q-learning with a linear function of the features of an action,
+ * Q(s,a) = w . phi(s,a), over a LazyStateSpace. The features of the action from
+ * s to a are, with gap = cpu(a) - goal:
+ *
+ * <pre>
+ * 1                                      bias
+ * sign(gap) * counts(a)[i] / max[i]      machines of each type after the action, a machine
+ *                                        more is worse above the goal and better under it
+ * |gap| / maxCpu                         distance from the goal after the action
+ * (|cpu(s) - goal| - |gap|) / types      progress towards the goal made by the action
+ * one-hot of the action                  keep, add a machine of type i, remove a machine of type i
+ * tiles of gap                           TILINGS shifted tilings of the signed cpu gap
+ * </pre>
+ *
+ * The tiles are precise where the training went, the distance and the progress
+ * extrapolate to the cpu values it never reached. The memory is O(features)
+ * whatever the number of states, and the learned values generalize to
+ * configurations never visited by the training. Rewards, goal and exploration are
+ * the ones of QLearning; the weights follow the semi-gradient update normalized by
+ * the squared norm of the features.
+ *
+ * @author Federico Lombardi
+ */
+public class LinearQLearning {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	static final int TILINGS = 4;
+
+	final double alpha = 0.1;
+	final double gamma = 0.9;
+	int episodes = 2000;
+
+	private LazyStateSpace stateSpace;
+	private int typesCount;
+	private int cpu;
+	private int maxReward;
+	private int penalty;
+	private boolean onlyGoalStates;
+	private int maxEpisodeSteps = 10000;
+	private TrainingMetricsSink metricsSink = NoOpMetricsSink.INSTANCE;
+	private double episodeMaxQDelta; // highest |TD error| of the last episode
+
+	// layout of the weights
+	private int countsOffset;
+	private int distanceOffset;
+	private int progressOffset;
+	private int actionOffset;
+	private int tilesOffset;
+	private int tileWidth;
+	private int tilesPerTiling;
+	private double[] w;
+
+	// buffers: the dense part of the features, the active tiles, near states and machine counts
+	private double[] dense;
+	private int[] tiles;
+	private long[] near;
+	private long[] nextNear;
+	private int[] counts;
+
+	/**
+	 * @param stateSpace
+	 * @param cpu goal cpu
+	 * @param penalizationFactor
+	 * @param onlyGoalStates
+	 */
+	public LinearQLearning(LazyStateSpace stateSpace, int cpu, int penalizationFactor, boolean onlyGoalStates) {
+		if (cpu < 1 || cpu > stateSpace.getMaxCpu())
+			throw new IllegalArgumentException("Goal cpu " + cpu + " is out of the state space");
+		this.stateSpace = stateSpace;
+		this.typesCount = stateSpace.getTypes().length;
+		this.cpu = cpu;
+		this.onlyGoalStates = onlyGoalStates;
+		this.maxReward = (cpu - 1) * penalizationFactor;
+		this.penalty = (int) Math.round(Math.sqrt(penalizationFactor));
+
+		// the gap goes from -goal to maxCpu-goal, a tiling has one extra tile for the shift
+		this.tileWidth = Math.max(1, stateSpace.getMaxCpu() / 64);
+		this.tilesPerTiling = stateSpace.getMaxCpu() / tileWidth + 2;
+		this.countsOffset = 1;
+		this.distanceOffset = countsOffset + typesCount;
+		this.progressOffset = distanceOffset + 1;
+		this.actionOffset = progressOffset + 1;
+		this.tilesOffset = actionOffset + 2 * typesCount + 1;
+		this.w = new double[tilesOffset + TILINGS * tilesPerTiling];
+
+		this.dense = new double[actionOffset];
+		this.tiles = new int[TILINGS];
+		this.near = new long[stateSpace.getMaxDegree()];
+		this.nextNear = new long[stateSpace.getMaxDegree()];
+		this.counts = new int[typesCount];
+	}
+
+	public int getGoalCpu() {
+		return this.cpu;
+	}
+
+	/**
+	 * @return number of weights of the linear function
+	 */
+	public int getFeaturesCount() {
+		return this.w.length;
+	}
+
+	public void setMaxEpisodeSteps(int maxEpisodeSteps) {
+		this.maxEpisodeSteps = maxEpisodeSteps;
+	}
+
+	public void setMetricsSink(TrainingMetricsSink metricsSink) {
+		this.metricsSink = metricsSink;
+	}
+
+	/**
+	 * Train from random initial states, on the calling thread
+	 */
+	public void run() {
+		logger.info("Linear Q-Learning is running on {} states with {} features..", stateSpace.getStatesCount(), w.length);
+		SplittableRandom rand = new SplittableRandom();
+		long begin = System.nanoTime();
+		for (int i = 0; i < episodes; i++) {
+			long stateIndex = rand.nextLong(stateSpace.getStatesCount());
+			int steps = runEpisode(stateIndex, rand);
+			metricsSink.record(i, steps, Double.NaN, episodeMaxQDelta, System.nanoTime() - begin);
+		}
+		metricsSink.close();
+	}
+
+	/**
+	 * Walk with random actions from the state until a goal state
+	 * @param stateIndex
+	 * @param rand
+	 * @return the steps of the episode
+	 */
+	int runEpisode(long stateIndex, SplittableRandom rand) {
+		int degree = stateSpace.getNear(stateIndex, near);
+		int steps = 0;
+		episodeMaxQDelta = 0D;
+		while (stateSpace.getCpu(stateIndex) != cpu && steps < maxEpisodeSteps) {
+			int action = rand.nextInt(degree);
+			long nextState = near[action];
+			int nextCpu = stateSpace.getCpu(nextState);
+			int nextDegree = stateSpace.getNear(nextState, nextNear);
+
+			// goal states are terminal, their actions are worth 0 as in QLearning
+			double maxQ = nextCpu == cpu ? 0D : getMaxQ(nextState, nextNear, nextDegree);
+			double q = features(stateIndex, nextState);
+			double error = reward(nextCpu) + gamma * maxQ - q;
+			double step = alpha * error / norm();
+			w[0] += step;
+			for (int i = 0; i < typesCount; i++) {
+				w[countsOffset + i] += step * dense[countsOffset + i];
+			}
+			w[distanceOffset] += step * dense[distanceOffset];
+			w[progressOffset] += step * dense[progressOffset];
+			w[actionOffset + actionFeature(stateIndex, nextState)] += step;
+			for (int t = 0; t < TILINGS; t++) {
+				w[tiles[t]] += step;
+			}
+			episodeMaxQDelta = Math.max(episodeMaxQDelta, Math.abs(error));
+
+			long[] swap = near;
+			near = nextNear;
+			nextNear = swap;
+			degree = nextDegree;
+			stateIndex = nextState;
+			steps++;
+		}
+		return steps;
+	}
+
+	private double reward(int nextCpu) {
+		if (onlyGoalStates)
+			return nextCpu == cpu ? maxReward : 0;
+		return maxReward - (maxReward/penalty)*Math.abs(cpu - nextCpu);
+	}
+
+	private double getMaxQ(long stateIndex, long[] near, int degree) {
+		double maxValue = Double.NEGATIVE_INFINITY;
+		for (int a = 0; a < degree; a++) {
+			maxValue = Math.max(maxValue, features(stateIndex, near[a]));
+		}
+		return maxValue;
+	}
+
+	/**
+	 * Fill the feature buffers for the action from s to a
+	 * @return Q(s,a)
+	 */
+	private double features(long s, long a) {
+		stateSpace.getCounts(a, counts);
+		int[] maxMachinePerType = stateSpace.getMaxMachinePerType();
+		int gap = stateSpace.getCpu(a) - cpu;
+		double q = w[0];
+		dense[0] = 1D;
+		// a machine more is worse above the goal and better under it
+		for (int i = 0; i < typesCount; i++) {
+			dense[countsOffset + i] = Integer.signum(gap) * (double) counts[i] / maxMachinePerType[i];
+			q += w[countsOffset + i] * dense[countsOffset + i];
+		}
+		q += w[actionOffset + actionFeature(s, a)];
+		dense[distanceOffset] = (double) Math.abs(gap) / stateSpace.getMaxCpu();
+		q += w[distanceOffset] * dense[distanceOffset];
+		dense[progressOffset] = (double) (Math.abs(stateSpace.getCpu(s) - cpu) - Math.abs(gap)) / typesCount;
+		q += w[progressOffset] * dense[progressOffset];
+		// the gap shifted by the goal is in 0..maxCpu
+		for (int t = 0; t < TILINGS; t++) {
+			int tile = (gap + cpu + t * tileWidth / TILINGS) / tileWidth;
+			tiles[t] = tilesOffset + t * tilesPerTiling + tile;
+			q += w[tiles[t]];
+		}
+		return q;
+	}
+
+	/**
+	 * @return the squared norm of the last computed features
+	 */
+	private double norm() {
+		double norm = 2D + TILINGS; // bias, action and tiles are 1
+		for (int i = countsOffset; i < actionOffset; i++) {
+			norm += dense[i] * dense[i];
+		}
+		return norm;
+	}
+
+	/**
+	 * @return 0 to keep the configuration, 1+2i to add and 2+2i to remove a machine of type i
+	 */
+	private int actionFeature(long s, long a) {
+		if (s == a)
+			return 0;
+		long delta = a - s;
+		long weight = 1;
+		int[] maxMachinePerType = stateSpace.getMaxMachinePerType();
+		for (int i = 0; i < typesCount; i++) {
+			if (delta == weight)
+				return 1 + 2 * i;
+			if (delta == -weight)
+				return 2 + 2 * i;
+			weight *= maxMachinePerType[i] + 1;
+		}
+		throw new IllegalArgumentException("States " + s + " and " + a + " are not near");
+	}
+
+	/**
+	 * @param stateIndex
+	 * @param action index of a near state
+	 * @return the approximated Q value
+	 */
+	public double getQ(long stateIndex, long action) {
+		return features(stateIndex, action);
+	}
+
+	/**
+	 * @param stateIndex
+	 * @return index of the near state with the highest Q value, the state itself for a goal state
+	 */
+	public long getPolicy(long stateIndex) {
+		if (stateSpace.getCpu(stateIndex) == cpu)
+			return stateIndex;
+		long[] near = new long[stateSpace.getMaxDegree()];
+		int degree = stateSpace.getNear(stateIndex, near);
+		double maxValue = Double.NEGATIVE_INFINITY;
+		long policyGotoState = stateIndex;
+		for (int a = 0; a < degree; a++) {
+			double value = features(stateIndex, near[a]);
+			if (value > maxValue) {
+				maxValue = value;
+				policyGotoState = near[a];
+			}
+		}
+		return policyGotoState;
+	}
+
+	/**
+	 * @param state a state of the same types, e.g. built by a StateSpace
+	 * @return the state to go to
+	 */
+	public State getPolicy(State state) {
+		return stateSpace.getState(getPolicy(stateSpace.indexOf(state.getConfiguration())));
+	}
+
+	/**
+	 * Log the states visited by the greedy policy from the given state
+	 * @param stateIndex
+	 * @param maxSteps
+	 */
+	public void showPolicy(long stateIndex, int maxSteps) {
+		logger.info("showPolicy from {}", stateSpace.getState(stateIndex));
+		for (int step = 0; step < maxSteps && stateSpace.getCpu(stateIndex) != cpu; step++) {
+			long to = getPolicy(stateIndex);
+			if (to == stateIndex)
+				break;
+			logger.info("goto {}", stateSpace.getState(to));
+			stateIndex = to;
+		}
+	}
+
+}
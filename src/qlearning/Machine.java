@@ -9,10 +9,18 @@ public class Machine {
 
 	private String type;
 	private int cpu;
+	private double price; // cost of a running machine per time unit
+	private int provisioningLatency; // seconds to boot or to release a machine
 	
 	public Machine(String type, int cpu) {
+		this(type, cpu, 0D, 0);
+	}
+	
+	public Machine(String type, int cpu, double price, int provisioningLatency) {
 		this.type = type;
 		this.cpu = cpu;
+		this.price = price;
+		this.provisioningLatency = provisioningLatency;
 	}
 	
 	public String getType() {
@@ -23,6 +31,33 @@ public class Machine {
 		return this.cpu;
 	}
 	
+	public double getPrice() {
+		return this.price;
+	}
+	
+	public int getProvisioningLatency() {
+		return this.provisioningLatency;
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = this.type.hashCode();
+		hash = 31 * hash + this.cpu;
+		hash = 31 * hash + Double.valueOf(this.price).hashCode();
+		return 31 * hash + this.provisioningLatency;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Machine))
+			return false;
+		Machine other = (Machine) obj;
+		return this.type.equals(other.type) && this.cpu == other.cpu
+				&& this.price == other.price && this.provisioningLatency == other.provisioningLatency;
+	}
+	
 	@Override
 	public String toString() {
 		return "Machine " + type + ": cpu=" + cpu;
@@ -0,0 +1,52 @@
+package qlearning;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Machine types of a state space, each with a fixed position. Configurations
+ * built on the same registry store only the count of each position.
+ *
+ * @author Federico Lombardi
+ */
+public class MachineRegistry {
+
+	private Machine[] machines;
+	private Map<String, Integer> typeIndex;
+
+	public MachineRegistry(Machine[] machines) {
+		this.machines = machines;
+		this.typeIndex = new HashMap<String, Integer>();
+		for (int i=0; i<machines.length; ++i) {
+			if (this.typeIndex.put(machines[i].getType(), i) != null)
+				throw new IllegalArgumentException("Machine type " + machines[i].getType() + " is registered twice");
+		}
+	}
+
+	/**
+	 * @return number of machine types
+	 */
+	public int size() {
+		return this.machines.length;
+	}
+
+	public Machine getMachine(int index) {
+		return this.machines[index];
+	}
+
+	public Machine[] getMachines() {
+		return this.machines;
+	}
+
+	/**
+	 * @param type
+	 * @return the position of the machine type, -1 if not registered
+	 */
+	public int indexOf(String type) {
+		Integer index = this.typeIndex.get(type);
+		return index == null ? -1 : index;
+	}
+
+}
@@ -0,0 +1,46 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Stop when the highest |Q change| stays under a threshold for a window of consecutive episodes.
+ *
+ * @author Federico Lombardi
+ */
+public class MaxQDeltaStoppingRule implements StoppingRule {
+
+	private double threshold;
+	private int window;
+	private int quietEpisodes;
+
+	/**
+	 * @param threshold
+	 * @param window number of consecutive episodes
+	 */
+	public MaxQDeltaStoppingRule(double threshold, int window) {
+		if (threshold <= 0 || window < 1)
+			throw new IllegalArgumentException("The threshold and the window must be positive");
+		this.threshold = threshold;
+		this.window = window;
+	}
+
+	@Override
+	public boolean shouldStop(int episode, double maxQDelta, int policyChanges) {
+		if (maxQDelta < this.threshold)
+			++this.quietEpisodes;
+		else
+			this.quietEpisodes = 0;
+		return this.quietEpisodes >= this.window;
+	}
+
+	@Override
+	public void reset() {
+		this.quietEpisodes = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "qdelta(threshold=" + this.threshold + ", window=" + this.window + ")";
+	}
+
+}
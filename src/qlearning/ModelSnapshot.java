@@ -0,0 +1,304 @@
+package qlearning;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Binary snapshot of a trained model, loaded through a read-only memory mapping so
+ * that a decision process starts without training and several JVMs on the same box
+ * share the pages of one model file. All values are big endian:
+ *
+ * <pre>
+ * int    magic, version
+ * int    typesCount
+ * typesCount x (UTF type name, int maxMachinePerType, int machine cpu)
+ * int    goalCpu, penalizationFactor, onlyGoalStates (0/1), episodes
+ * double alpha, gamma
+ * int    statesCount, edgesCount
+ * byte   statesCount x typesCount machine counts, padded to 4 bytes
+ * int    statesCount+1 CSR offsets
+ * int    edgesCount CSR targets, padded to 8 bytes
+ * double edgesCount Q values
+ * </pre>
+ *
+ * States are stored in the StateSpace order (index = stateId-1).
+ *
+ * @author Federico Lombardi
+ */
+public class ModelSnapshot {
+
+	static final int MAGIC = 0x514C4153; // "QLAS"
+	static final int VERSION = 1;
+
+	private String[] types;
+	private int[] maxMachinePerType;
+	private int[] machineCpu;
+	private int goalCpu;
+	private int penalizationFactor;
+	private boolean onlyGoalStates;
+	private int episodes;
+	private double alpha;
+	private double gamma;
+	private int statesCount;
+	private int edgesCount;
+
+	private ByteBuffer counts;
+	private IntBuffer offsets;
+	private IntBuffer targets;
+	private DoubleBuffer Q;
+
+	/**
+	 * Write the trained Q table of a QLearning built on the states of the state space
+	 * @param qlearning
+	 * @param stateSpace
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(QLearning qlearning, StateSpace stateSpace, File file) throws IOException {
+
+		String[] types = stateSpace.getTypes();
+		int[] maxMachinePerType = stateSpace.getMaxMachinePerType();
+		ActionGraph graph = qlearning.graph;
+		if (graph.getStatesCount() != stateSpace.getStatesCount())
+			throw new IllegalArgumentException("The QLearning is not built on the given state space");
+		for (int i=0; i<types.length; ++i) {
+			if (maxMachinePerType[i] > Byte.MAX_VALUE)
+				throw new IllegalArgumentException("At most " + Byte.MAX_VALUE + " machines per type can be stored");
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(types.length);
+			for (int i=0; i<types.length; ++i) {
+				out.writeUTF(types[i]);
+				out.writeInt(maxMachinePerType[i]);
+				out.writeInt(stateSpace.getMachines()[i].getCpu());
+			}
+			out.writeInt(qlearning.getGoalCpu());
+			out.writeInt(qlearning.penalizationFactor);
+			out.writeInt(qlearning.onlyGoalStates ? 1 : 0);
+			out.writeInt(qlearning.episodes);
+			out.writeDouble(qlearning.alpha);
+			out.writeDouble(qlearning.gamma);
+			out.writeInt(graph.getStatesCount());
+			out.writeInt(graph.getEdgesCount());
+
+			int[] counts = new int[types.length];
+			for (int s = 0; s < graph.getStatesCount(); ++s) {
+				stateSpace.getCounts(s, counts);
+				for (int i=0; i<types.length; ++i) {
+					out.writeByte(counts[i]);
+				}
+			}
+			pad(out, 4);
+			for (int s = 0; s <= graph.getStatesCount(); ++s) {
+				out.writeInt(s < graph.getStatesCount() ? graph.getFirstEdge(s) : graph.getEdgesCount());
+			}
+			for (int e = 0; e < graph.getEdgesCount(); ++e) {
+				out.writeInt(graph.getTarget(e));
+			}
+			pad(out, 8);
+			for (int e = 0; e < graph.getEdgesCount(); ++e) {
+				out.writeDouble(qlearning.Q[e]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void pad(DataOutputStream out, int alignment) throws IOException {
+		while (out.size() % alignment != 0) {
+			out.writeByte(0);
+		}
+	}
+
+	/**
+	 * Map a snapshot file in memory. The file can be closed by other processes
+	 * and must not be modified while the snapshot is in use.
+	 * @param file
+	 * @return the read-only snapshot
+	 * @throws IOException
+	 */
+	public static ModelSnapshot load(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new ModelSnapshot(buffer);
+		}
+		finally {
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	private ModelSnapshot(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC)
+			throw new IOException("Not a model snapshot");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported model snapshot version " + version);
+
+		int typesCount = buffer.getInt();
+		this.types = new String[typesCount];
+		this.maxMachinePerType = new int[typesCount];
+		this.machineCpu = new int[typesCount];
+		for (int i=0; i<typesCount; ++i) {
+			byte[] name = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(name);
+			this.types[i] = new String(name, StandardCharsets.UTF_8);
+			this.maxMachinePerType[i] = buffer.getInt();
+			this.machineCpu[i] = buffer.getInt();
+		}
+		this.goalCpu = buffer.getInt();
+		this.penalizationFactor = buffer.getInt();
+		this.onlyGoalStates = buffer.getInt() != 0;
+		this.episodes = buffer.getInt();
+		this.alpha = buffer.getDouble();
+		this.gamma = buffer.getDouble();
+		this.statesCount = buffer.getInt();
+		this.edgesCount = buffer.getInt();
+
+		this.counts = section(buffer, statesCount * typesCount, 4);
+		this.offsets = section(buffer, 4 * (statesCount + 1), 1).asIntBuffer();
+		this.targets = section(buffer, 4 * edgesCount, 8).asIntBuffer();
+		this.Q = section(buffer, 8 * edgesCount, 1).asDoubleBuffer();
+	}
+
+	/**
+	 * Slice the next bytes of the buffer and move after them and after the padding
+	 */
+	private static ByteBuffer section(ByteBuffer buffer, int length, int alignment) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		int end = buffer.position() + length;
+		buffer.position(end + (alignment - end % alignment) % alignment);
+		return slice;
+	}
+
+	public String[] getTypes() {
+		return this.types;
+	}
+
+	public int[] getMaxMachinePerType() {
+		return this.maxMachinePerType;
+	}
+
+	public int[] getMachineCpu() {
+		return this.machineCpu;
+	}
+
+	public int getGoalCpu() {
+		return this.goalCpu;
+	}
+
+	public int getPenalizationFactor() {
+		return this.penalizationFactor;
+	}
+
+	public boolean isOnlyGoalStates() {
+		return this.onlyGoalStates;
+	}
+
+	public int getEpisodes() {
+		return this.episodes;
+	}
+
+	public double getAlpha() {
+		return this.alpha;
+	}
+
+	public double getGamma() {
+		return this.gamma;
+	}
+
+	public int getStatesCount() {
+		return this.statesCount;
+	}
+
+	public int getEdgesCount() {
+		return this.edgesCount;
+	}
+
+	/**
+	 * @param state index of the state
+	 * @param counts filled with the number of machines of each type
+	 */
+	public void getCounts(int state, int[] counts) {
+		for (int i=0; i<this.types.length; ++i) {
+			counts[i] = this.counts.get(state * this.types.length + i);
+		}
+	}
+
+	public int getFirstEdge(int state) {
+		return this.offsets.get(state);
+	}
+
+	public int getLastEdge(int state) {
+		return this.offsets.get(state + 1);
+	}
+
+	public int getTarget(int edge) {
+		return this.targets.get(edge);
+	}
+
+	public double getQ(int edge) {
+		return this.Q.get(edge);
+	}
+
+	/**
+	 * Same rule of QLearning.getPolicy: the action with the highest positive Q value
+	 * @param state index of the state
+	 * @return index of the state to go to, the state itself if not found
+	 */
+	public int getPolicy(int state) {
+		double maxValue = Double.MIN_VALUE;
+		int policyGotoState = state;
+		for (int e = getFirstEdge(state); e < getLastEdge(state); ++e) {
+			double value = getQ(e);
+			if (value > maxValue) {
+				maxValue = value;
+				policyGotoState = getTarget(e);
+			}
+		}
+		return policyGotoState;
+	}
+
+	/**
+	 * Rebuild the state space and a decision service answering for the goal of the snapshot
+	 * @return the policy service
+	 * @throws IllegalStateException if the rebuilt machines do not have the cpu stored in the snapshot
+	 */
+	public PolicyService toPolicyService() {
+		StateSpace stateSpace = new StateSpace(this.types, this.maxMachinePerType);
+		if (stateSpace.getStatesCount() != this.statesCount)
+			throw new IllegalStateException("The snapshot states do not match the state space");
+		for (int i=0; i<this.types.length; ++i) {
+			// the policy moves between configurations, its cpu values must be the ones it was trained for
+			if (stateSpace.getMachines()[i].getCpu() != this.machineCpu[i])
+				throw new IllegalStateException("The cpu of the machine type " + this.types[i] + " does not match the state space");
+		}
+		PolicyService policyService = new PolicyService(stateSpace);
+		int[] policy = new int[this.statesCount];
+		for (int s = 0; s < this.statesCount; ++s) {
+			policy[s] = getPolicy(s);
+		}
+		policyService.addPolicy(this.goalCpu, policy);
+		return policyService;
+	}
+
+}
@@ -0,0 +1,124 @@
+package qlearning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Goal-conditioned training: one QLearning for every cpu value of the state space,
+ * all sharing the same states, actions, ActionGraph and its transpose (only Q and R
+ * are per goal).
+ * The goals are trained concurrently in one pass, then the policy of any goal can be
+ * looked up without retraining when the target cpu changes.
+ *
+ * @author Federico Lombardi
+ */
+public class MultiGoalQLearning {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private Map<Integer, QLearning> qlearnings;
+
+	/**
+	 * @param states
+	 * @param cpuValuesStateMap
+	 * @param actions
+	 * @param penalizationFactor
+	 * @param onlyGoalStates
+	 */
+	public MultiGoalQLearning(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions,
+			int penalizationFactor, boolean onlyGoalStates) {
+		ActionGraph graph = new ActionGraph(states, actions);
+		ActionGraph predecessors = graph.transpose();
+		this.qlearnings = new TreeMap<Integer, QLearning>();
+		for (Integer goalCpu : cpuValuesStateMap.keySet()) {
+			this.qlearnings.put(goalCpu, new QLearning(states, cpuValuesStateMap, actions, graph, predecessors, goalCpu,
+					penalizationFactor, onlyGoalStates));
+		}
+		logger.info("Created QLearning for " + this.qlearnings.size() + " goals.");
+	}
+
+	/**
+	 * Train every goal, each one on a single worker
+	 * @param workers number of goals trained at the same time
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void run(int workers) throws InterruptedException, ExecutionException {
+
+		logger.info("Multi-goal Q-Learning is running with " + workers + " workers..");
+		SplittableRandom masterRand = new SplittableRandom();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final QLearning qlearning : this.qlearnings.values()) {
+			final SplittableRandom rand = masterRand.split();
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					qlearning.train(rand);
+					logger.debug("Trained goal cpu {}", qlearning.getGoalCpu());
+					return null;
+				}
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the trained goal cpu values, in ascending order
+	 */
+	public Iterable<Integer> getGoals() {
+		return this.qlearnings.keySet();
+	}
+
+	/**
+	 * @param goalCpu
+	 * @return the QLearning of the goal, null if the cpu value has no state
+	 */
+	public QLearning getQLearning(int goalCpu) {
+		return this.qlearnings.get(goalCpu);
+	}
+
+	/**
+	 * @param state
+	 * @param goalCpu
+	 * @return the state to go to from the given state to reach the goal
+	 */
+	public State getPolicy(State state, int goalCpu) {
+		QLearning qlearning = this.qlearnings.get(goalCpu);
+		if (qlearning == null)
+			throw new IllegalArgumentException("No policy trained for goal cpu " + goalCpu);
+		return qlearning.getPolicy(state);
+	}
+
+	/**
+	 * Add the policy of every goal to the service
+	 * @param policyService
+	 */
+	public void addPolicies(PolicyService policyService) {
+		for (QLearning qlearning : this.qlearnings.values()) {
+			policyService.addPolicy(qlearning);
+		}
+	}
+
+}
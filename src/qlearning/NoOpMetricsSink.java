@@ -0,0 +1,22 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Sink that discards the training metrics.
+ *
+ * @author Federico Lombardi
+ */
+public class NoOpMetricsSink implements TrainingMetricsSink {
+
+	public static final NoOpMetricsSink INSTANCE = new NoOpMetricsSink();
+
+	@Override
+	public void record(int episode, int steps, double avgSteps, double maxQDelta, long wallTimeNanos) {
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
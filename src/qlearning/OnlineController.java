@@ -0,0 +1,197 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Event-driven autoscaler that keeps learning while it is used. Each cpu demand
+ * sample, increased by the headroom, is mapped to the smallest trained goal covering
+ * it (as in the TraceSimulator); the action is chosen on the Q values of that goal
+ * with the exploration strategy and applied. Its reward is not the one of the offline
+ * model: when the next sample arrives, the configuration reached is penalized with
+ * -maxReward of the goal if it does not cover the observed demand (a SLA violation),
+ * otherwise its reward decreases with the distance from the cpu of the goal the action
+ * was chosen for, as in CpuDistanceReward. The reward is fed back as one incremental Q
+ * update of that goal, so every table keeps learning to reach its own cpu while the
+ * live load decides which violations are real. A goal state is kept as it is.
+ *
+ * The work of an event is a scan of the actions of the current state plus two scans
+ * for the Q update of the previous action, with no allocation, so its latency is bounded by the max
+ * degree of the ActionGraph; the latencies are recorded in a histogram. The samples
+ * come from a SampleSource, a SampleQueue gives backpressure to faster producers.
+ * onSample must be called by one thread at a time.
+ *
+ * @author Federico Lombardi
+ */
+public class OnlineController {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private QLearning[] qlearnings; // QLearning of each goal cpu, indexed by cpu
+	private int[] goalOf; // trained goal used for each required cpu
+	private int[] stateCpu;
+	private double headroom;
+	private ExplorationStrategy exploration;
+	private SplittableRandom rand = new SplittableRandom();
+	private volatile boolean stopped;
+
+	private int current;
+	private long events;
+	private long scaleActions;
+	private long slaViolations;
+	private Histogram latency = new Histogram();
+
+	// last action taken, learned from when the next sample tells how it served the load
+	private QLearning pendingQLearning;
+	private int pendingState;
+	private int pendingEdge = -1;
+
+	/**
+	 * @param multiGoal QLearning of every goal, trained or not
+	 * @param headroom fraction of the demand added to the goal cpu (e.g. 0.1 for 10%)
+	 * @param exploration action selection, e.g. an EpsilonGreedyExploration with a small epsilon
+	 * @param initialState index of the configuration running before the first sample
+	 */
+	public OnlineController(MultiGoalQLearning multiGoal, double headroom, ExplorationStrategy exploration, int initialState) {
+		if (headroom < 0D)
+			throw new IllegalArgumentException("The headroom must not be negative");
+		this.headroom = headroom;
+		this.exploration = exploration;
+		this.current = initialState;
+
+		int maxCpu = 0;
+		for (int goal : multiGoal.getGoals()) {
+			QLearning qlearning = multiGoal.getQLearning(goal);
+			if (this.stateCpu == null)
+				this.stateCpu = qlearning.stateCpu;
+			maxCpu = Math.max(maxCpu, goal);
+		}
+		if (this.stateCpu == null)
+			throw new IllegalArgumentException("No goal to learn");
+		this.qlearnings = new QLearning[maxCpu + 1];
+		for (int goal : multiGoal.getGoals()) {
+			this.qlearnings[goal] = multiGoal.getQLearning(goal);
+		}
+
+		// the smallest goal covering the cpu, the highest goal if none covers it
+		this.goalOf = new int[maxCpu + 1];
+		int goal = maxCpu;
+		for (int cpu = maxCpu; cpu >= 0; --cpu) {
+			if (this.qlearnings[cpu] != null)
+				goal = cpu;
+			this.goalOf[cpu] = goal;
+		}
+	}
+
+	/**
+	 * Handle the samples of the source until it ends or stop() is called
+	 * @param source
+	 * @throws InterruptedException
+	 */
+	public void run(SampleSource source) throws InterruptedException {
+		logger.info("Online controller is running..");
+		while (!this.stopped) {
+			double demand = source.take();
+			if (Double.isNaN(demand))
+				break;
+			onSample(demand);
+		}
+		logger.info("Online controller stopped: " + this);
+	}
+
+	/**
+	 * Learn from the previous action with the demand of this sample, then decide and apply the next one
+	 * @param demand cpu needed
+	 * @return index of the configuration after the action
+	 */
+	public int onSample(double demand) {
+		long begin = System.nanoTime();
+		int required = (int) Math.ceil(demand * (1D + this.headroom));
+		if (this.pendingEdge >= 0) {
+			this.pendingQLearning.learn(this.pendingState, this.pendingEdge, observedReward(this.pendingQLearning, demand));
+			this.pendingEdge = -1;
+		}
+		QLearning qlearning = this.qlearnings[this.goalOf[Math.max(0, Math.min(required, this.goalOf.length - 1))]];
+		if (!qlearning.goal.get(this.current)) {
+			int episode = (int) Math.min(this.events, Integer.MAX_VALUE);
+			int edge = this.exploration.selectEdge(qlearning.graph, qlearning.Q, this.current, episode, this.rand);
+			int next = qlearning.graph.getTarget(edge);
+			this.pendingQLearning = qlearning;
+			this.pendingState = this.current;
+			this.pendingEdge = edge;
+			if (next != this.current) {
+				this.current = next;
+				++this.scaleActions;
+			}
+		}
+		++this.events;
+		if (this.stateCpu[this.current] < demand)
+			++this.slaViolations;
+		this.latency.record(System.nanoTime() - begin);
+		return this.current;
+	}
+
+	/**
+	 * Score the running configuration, the one reached by the pending action, for the goal
+	 * the action was chosen for: the demand of another goal must not move its Q values
+	 * @param qlearning goal the action was chosen for
+	 * @param demand cpu observed after the action
+	 * @return the reward
+	 */
+	private double observedReward(QLearning qlearning, double demand) {
+		int capacity = this.stateCpu[this.current];
+		if (capacity < demand)
+			return -qlearning.maxReward;
+		return qlearning.maxReward - (double) qlearning.maxReward / Math.max(1, qlearning.penalty)
+				* Math.abs(capacity - qlearning.getGoalCpu());
+	}
+
+	/**
+	 * End run() after the sample being handled
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+
+	/**
+	 * @return index of the running configuration
+	 */
+	public int getCurrentState() {
+		return this.current;
+	}
+
+	public long getEvents() {
+		return this.events;
+	}
+
+	public long getScaleActions() {
+		return this.scaleActions;
+	}
+
+	/**
+	 * @return samples whose demand exceeded the cpu of the configuration chosen for them
+	 */
+	public long getSlaViolations() {
+		return this.slaViolations;
+	}
+
+	/**
+	 * @return the latencies of the events, in nanoseconds
+	 */
+	public Histogram.Snapshot getLatency() {
+		return this.latency.snapshot();
+	}
+
+	@Override
+	public String toString() {
+		Histogram.Snapshot latency = this.latency.snapshot();
+		return String.format("events=%d slaViolations=%d (%.2f%%) scaleActions=%d latency p50=%dns p99=%dns max=%dns",
+				events, slaViolations, events == 0 ? 0D : 100D * slaViolations / events, scaleActions,
+				latency.getValueAtPercentile(50), latency.getValueAtPercentile(99), latency.getMax());
+	}
+
+}
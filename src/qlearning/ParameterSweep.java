@@ -0,0 +1,240 @@
+package qlearning;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Grid search over (goal cpu, penalization, only goal) sharing one state space,
+ * one ActionGraph and its transpose: only Q and R are allocated for each run. The
+ * runs are trained concurrently on a fork-join pool, each one on a single thread
+ * writing its own metrics file, and the result of every run is collected for a
+ * summary table.
+ *
+ * @author Federico Lombardi
+ */
+public class ParameterSweep {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private List<State> states;
+	private Map<Integer, List<State>> cpuValuesStateMap;
+	private Map<State, List<State>> actions;
+	private ActionGraph graph;
+	private ActionGraph predecessors;
+
+	private int evaluationInterval = 1;
+	private double priceWeight;
+	private double latencyWeight;
+
+	/**
+	 * @param states
+	 * @param cpuValuesStateMap
+	 * @param actions
+	 */
+	public ParameterSweep(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions) {
+		this.states = states;
+		this.cpuValuesStateMap = cpuValuesStateMap;
+		this.actions = actions;
+		this.graph = new ActionGraph(states, actions);
+		this.predecessors = this.graph.transpose();
+	}
+
+	/**
+	 * @param evaluationInterval number of episodes between two samples of the avg step of each run
+	 */
+	public void setEvaluationInterval(int evaluationInterval) {
+		if (evaluationInterval < 1)
+			throw new IllegalArgumentException("The evaluation interval must be positive");
+		this.evaluationInterval = evaluationInterval;
+	}
+
+	/**
+	 * Train every run with the CostAwareReward, 0 for both weights to keep the cpu reward
+	 * @param priceWeight
+	 * @param latencyWeight
+	 */
+	public void setCostWeights(double priceWeight, double latencyWeight) {
+		this.priceWeight = priceWeight;
+		this.latencyWeight = latencyWeight;
+	}
+
+	/**
+	 * Train every combination of the parameters
+	 * @param goalCpus
+	 * @param penalizationFactors
+	 * @param onlyGoalStates
+	 * @param outputDir directory of the metrics file of each run, created if missing
+	 * @param workers number of runs trained at the same time
+	 * @return the result of each run, in grid order
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public List<Result> run(int[] goalCpus, int[] penalizationFactors, boolean[] onlyGoalStates, File outputDir, int workers)
+			throws InterruptedException, ExecutionException {
+
+		for (int goalCpu : goalCpus) {
+			if (!this.cpuValuesStateMap.containsKey(goalCpu))
+				throw new IllegalArgumentException("No state has goal cpu " + goalCpu);
+		}
+		if (!outputDir.isDirectory() && !outputDir.mkdirs())
+			throw new IllegalArgumentException("Cannot create the output directory " + outputDir);
+
+		List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+		for (final int goalCpu : goalCpus) {
+			for (final int penalizationFactor : penalizationFactors) {
+				for (final boolean onlyGoal : onlyGoalStates) {
+					final File file = new File(outputDir, "res_goal" + goalCpu + "_pen" + penalizationFactor + "_only" + onlyGoal + ".csv");
+					tasks.add(new Callable<Result>() {
+						@Override
+						public Result call() throws FileNotFoundException {
+							return train(goalCpu, penalizationFactor, onlyGoal, file);
+						}
+					});
+				}
+			}
+		}
+
+		logger.info("Parameter sweep of " + tasks.size() + " runs with " + workers + " workers..");
+		List<Result> results = new ArrayList<Result>();
+		ForkJoinPool pool = new ForkJoinPool(workers);
+		try {
+			for (Future<Result> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
+	private Result train(int goalCpu, int penalizationFactor, boolean onlyGoal, File file) throws FileNotFoundException {
+		long begin = System.nanoTime();
+		QLearning qlearning = new QLearning(this.states, this.cpuValuesStateMap, this.actions, this.graph, this.predecessors, goalCpu,
+				penalizationFactor, onlyGoal);
+		if (this.priceWeight != 0D || this.latencyWeight != 0D)
+			qlearning.setRewardFunction(new CostAwareReward(qlearning.getRewardFunction(), this.priceWeight, this.latencyWeight));
+		qlearning.setEvaluationInterval(this.evaluationInterval);
+		ConvergenceSink sink = new ConvergenceSink(new CsvMetricsSink(file));
+		qlearning.setMetricsSink(sink);
+		qlearning.run();
+		return new Result(goalCpu, penalizationFactor, onlyGoal, file, sink.convergenceEpisode, sink.lastAvgSteps,
+				(System.nanoTime() - begin) / 1000000L);
+	}
+
+	/**
+	 * @param results
+	 * @return one aligned line for each run
+	 */
+	public static String summary(List<Result> results) {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format(Locale.ROOT, "%8s %12s %9s %12s %14s %10s%n",
+				"goalcpu", "penalization", "onlygoal", "convergence", "final avg step", "time (ms)"));
+		for (Result r : results) {
+			table.append(String.format(Locale.ROOT, "%8d %12d %9b %12d %14.3f %10d%n",
+					r.goalCpu, r.penalizationFactor, r.onlyGoalStates, r.convergenceEpisode, r.finalAvgSteps, r.wallTimeMillis));
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Forward the records to the metrics file and remember the first episode
+	 * from which the sampled avg step never changed again
+	 */
+	private static class ConvergenceSink implements TrainingMetricsSink {
+
+		private TrainingMetricsSink delegate;
+		int convergenceEpisode;
+		double lastAvgSteps = Double.NaN;
+
+		ConvergenceSink(TrainingMetricsSink delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void record(int episode, int steps, double avgSteps, double maxQDelta, long wallTimeNanos) {
+			if (!Double.isNaN(avgSteps) && avgSteps != this.lastAvgSteps) {
+				this.lastAvgSteps = avgSteps;
+				this.convergenceEpisode = episode;
+			}
+			this.delegate.record(episode, steps, avgSteps, maxQDelta, wallTimeNanos);
+		}
+
+		@Override
+		public void close() {
+			this.delegate.close();
+		}
+
+	}
+
+	/**
+	 * Outcome of one run of the sweep
+	 */
+	public static class Result {
+
+		private int goalCpu;
+		private int penalizationFactor;
+		private boolean onlyGoalStates;
+		private File metricsFile;
+		private int convergenceEpisode;
+		private double finalAvgSteps;
+		private long wallTimeMillis;
+
+		Result(int goalCpu, int penalizationFactor, boolean onlyGoalStates, File metricsFile, int convergenceEpisode,
+				double finalAvgSteps, long wallTimeMillis) {
+			this.goalCpu = goalCpu;
+			this.penalizationFactor = penalizationFactor;
+			this.onlyGoalStates = onlyGoalStates;
+			this.metricsFile = metricsFile;
+			this.convergenceEpisode = convergenceEpisode;
+			this.finalAvgSteps = finalAvgSteps;
+			this.wallTimeMillis = wallTimeMillis;
+		}
+
+		public int getGoalCpu() {
+			return this.goalCpu;
+		}
+
+		public int getPenalizationFactor() {
+			return this.penalizationFactor;
+		}
+
+		public boolean isOnlyGoalStates() {
+			return this.onlyGoalStates;
+		}
+
+		public File getMetricsFile() {
+			return this.metricsFile;
+		}
+
+		/**
+		 * @return first episode from which the sampled avg step stayed at its final value
+		 */
+		public int getConvergenceEpisode() {
+			return this.convergenceEpisode;
+		}
+
+		public double getFinalAvgSteps() {
+			return this.finalAvgSteps;
+		}
+
+		public long getWallTimeMillis() {
+			return this.wallTimeMillis;
+		}
+
+	}
+
+}
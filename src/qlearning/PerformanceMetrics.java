@@ -0,0 +1,208 @@
+package qlearning;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Performance counters of the training and of the decision service. Counters are
+ * LongAdders and distributions are Histograms, so several training workers and
+ * lookup threads record without contention. The training records once per episode
+ * (every step is one Q update) and once per evaluation of the avg step; the
+ * policy lookups are timed only when a PolicyService is given these metrics.
+ * The values can be read through JMX and logged periodically.
+ *
+ * @author Federico Lombardi
+ */
+public class PerformanceMetrics implements PerformanceMetricsMBean {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private LongAdder episodes = new LongAdder();
+	private LongAdder qUpdates = new LongAdder();
+	private LongAdder evaluations = new LongAdder();
+	private LongAdder policyLookups = new LongAdder();
+	private Histogram stepsPerEpisode = new Histogram();
+	private Histogram evaluationNanos = new Histogram();
+	private Histogram policyLookupNanos = new Histogram();
+	private volatile long beginNanos = System.nanoTime();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param steps steps (and Q updates) of a finished episode
+	 */
+	public void recordEpisode(int steps) {
+		recordEpisode(steps, steps);
+	}
+
+	/**
+	 * @param steps steps of a finished episode
+	 * @param qUpdates Q updates of the episode, more than the steps when transitions are replayed
+	 */
+	public void recordEpisode(int steps, long qUpdates) {
+		this.episodes.increment();
+		this.qUpdates.add(qUpdates);
+		this.stepsPerEpisode.record(steps);
+	}
+
+	/**
+	 * @param nanos time spent computing the avg step to reach a goal state
+	 */
+	public void recordEvaluation(long nanos) {
+		this.evaluations.increment();
+		this.evaluationNanos.record(nanos);
+	}
+
+	/**
+	 * @param nanos time spent answering a policy lookup
+	 */
+	public void recordPolicyLookup(long nanos) {
+		this.policyLookups.increment();
+		this.policyLookupNanos.record(nanos);
+	}
+
+	@Override
+	public long getEpisodes() {
+		return this.episodes.sum();
+	}
+
+	@Override
+	public long getQUpdates() {
+		return this.qUpdates.sum();
+	}
+
+	@Override
+	public double getEpisodesPerSecond() {
+		return perSecond(getEpisodes());
+	}
+
+	@Override
+	public double getQUpdatesPerSecond() {
+		return perSecond(getQUpdates());
+	}
+
+	@Override
+	public double getMeanStepsPerEpisode() {
+		return this.stepsPerEpisode.snapshot().getMean();
+	}
+
+	@Override
+	public long getStepsPerEpisodeP99() {
+		return this.stepsPerEpisode.snapshot().getValueAtPercentile(99D);
+	}
+
+	@Override
+	public long getEvaluations() {
+		return this.evaluations.sum();
+	}
+
+	@Override
+	public double getEvaluationMeanMicros() {
+		return this.evaluationNanos.snapshot().getMean() / 1000D;
+	}
+
+	@Override
+	public long getEvaluationP99Micros() {
+		return this.evaluationNanos.snapshot().getValueAtPercentile(99D) / 1000L;
+	}
+
+	@Override
+	public long getPolicyLookups() {
+		return this.policyLookups.sum();
+	}
+
+	@Override
+	public long getPolicyLookupP50Nanos() {
+		return this.policyLookupNanos.snapshot().getValueAtPercentile(50D);
+	}
+
+	@Override
+	public long getPolicyLookupP99Nanos() {
+		return this.policyLookupNanos.snapshot().getValueAtPercentile(99D);
+	}
+
+	@Override
+	public void reset() {
+		this.episodes.reset();
+		this.qUpdates.reset();
+		this.evaluations.reset();
+		this.policyLookups.reset();
+		this.stepsPerEpisode.reset();
+		this.evaluationNanos.reset();
+		this.policyLookupNanos.reset();
+		this.beginNanos = System.nanoTime();
+	}
+
+	private double perSecond(long count) {
+		double seconds = (System.nanoTime() - this.beginNanos) / 1e9;
+		return seconds <= 0D ? 0D : count / seconds;
+	}
+
+	/**
+	 * Register the metrics in the platform MBean server as qlearning:type=PerformanceMetrics,name=...
+	 * @param name
+	 * @throws JMException
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("qlearning:type=PerformanceMetrics,name=" + ObjectName.quote(name)));
+	}
+
+	/**
+	 * Log a snapshot at a fixed rate from a daemon thread, until stopSnapshots is called
+	 * @param periodMillis
+	 */
+	public synchronized void startSnapshots(long periodMillis) {
+		if (this.scheduler != null)
+			return;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "metrics-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				logger.info(snapshot());
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopSnapshots() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdown();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * @return one line with the current values
+	 */
+	public String snapshot() {
+		Histogram.Snapshot steps = this.stepsPerEpisode.snapshot();
+		Histogram.Snapshot evaluation = this.evaluationNanos.snapshot();
+		Histogram.Snapshot lookup = this.policyLookupNanos.snapshot();
+		return String.format("episodes=%d (%.1f/s) qUpdates=%d (%.1f/s) steps/episode mean=%.1f p99=%d"
+				+ " evaluations=%d mean=%.1fus p99=%dus lookups=%d p50=%dns p99=%dns",
+				steps.getCount(), getEpisodesPerSecond(), getQUpdates(), getQUpdatesPerSecond(),
+				steps.getMean(), steps.getValueAtPercentile(99D),
+				evaluation.getCount(), evaluation.getMean() / 1000D, evaluation.getValueAtPercentile(99D) / 1000L,
+				lookup.getCount(), lookup.getValueAtPercentile(50D), lookup.getValueAtPercentile(99D));
+	}
+
+}
@@ -0,0 +1,39 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * JMX view of the PerformanceMetrics. Times are in microseconds unless the
+ * name says otherwise.
+ *
+ * @author Federico Lombardi
+ */
+public interface PerformanceMetricsMBean {
+
+	long getEpisodes();
+
+	long getQUpdates();
+
+	double getEpisodesPerSecond();
+
+	double getQUpdatesPerSecond();
+
+	double getMeanStepsPerEpisode();
+
+	long getStepsPerEpisodeP99();
+
+	long getEvaluations();
+
+	double getEvaluationMeanMicros();
+
+	long getEvaluationP99Micros();
+
+	long getPolicyLookups();
+
+	long getPolicyLookupP50Nanos();
+
+	long getPolicyLookupP99Nanos();
+
+	void reset();
+
+}
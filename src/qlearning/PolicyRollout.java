@@ -0,0 +1,120 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Iterative walk of the greedy policy from a state to a terminal state.
+ * The best action of every state (the self loop excluded) is kept in a primitive
+ * next-state array rebuilt by refresh() after the Q values change, and a cycle
+ * is detected by stamping the visited states with the id of the walk, so a
+ * rollout costs one array load per hop and allocates nothing.
+ * The states of the last walk are kept in a path buffer, to explain a scaling decision.
+ *
+ * Like the ConvergenceTracker, a walk that enters a cycle or a state without
+ * actions is counted as ConvergenceTracker.UNREACHABLE_STEPS.
+ *
+ * @author Federico Lombardi
+ */
+public class PolicyRollout {
+
+	private ActionGraph graph;
+	private double[] Q;
+	private boolean[] terminal;
+
+	private int[] next; // index of the state chosen by the greedy policy
+	private int[] visitEpoch;
+	private int epoch;
+
+	private int[] path;
+	private int pathLength;
+
+	/**
+	 * @param graph action adjacency
+	 * @param Q Q values indexed by edge, shared with the learner
+	 * @param terminal flag of the states where the walk stops
+	 */
+	public PolicyRollout(ActionGraph graph, double[] Q, boolean[] terminal) {
+		int statesCount = graph.getStatesCount();
+		this.graph = graph;
+		this.Q = Q;
+		this.terminal = terminal;
+		this.next = new int[statesCount];
+		this.visitEpoch = new int[statesCount];
+		this.path = new int[statesCount];
+		refresh();
+	}
+
+	/**
+	 * Rebuild the greedy policy from the Q values
+	 */
+	public void refresh() {
+		for (int s = 0; s < this.next.length; ++s) {
+			refresh(s);
+		}
+	}
+
+	/**
+	 * Rebuild the greedy action of one state
+	 * @param state index of the state
+	 */
+	public void refresh(int state) {
+		int best = -1;
+		for (int e = this.graph.getFirstEdge(state); e < this.graph.getLastEdge(state); ++e) {
+			if (this.graph.getTarget(e) != state && (best < 0 || this.Q[e] > this.Q[best]))
+				best = e;
+		}
+		this.next[state] = best < 0 ? state : this.graph.getTarget(best);
+	}
+
+	/**
+	 * Follow the greedy policy from the state until a terminal state
+	 * @param start index of the first state
+	 * @return the steps to reach a terminal state, UNREACHABLE_STEPS if the policy never reaches one
+	 */
+	public int rollout(int start) {
+		if (++this.epoch == 0) {
+			// the stamps wrapped around, forget all of them
+			Arrays.fill(this.visitEpoch, 0);
+			this.epoch = 1;
+		}
+		this.pathLength = 0;
+		int current = start;
+		while (!this.terminal[current]) {
+			if (this.visitEpoch[current] == this.epoch)
+				return ConvergenceTracker.UNREACHABLE_STEPS;
+			this.visitEpoch[current] = this.epoch;
+			this.path[this.pathLength++] = current;
+			if (this.next[current] == current)
+				return ConvergenceTracker.UNREACHABLE_STEPS;
+			current = this.next[current];
+		}
+		this.path[this.pathLength++] = current;
+		return this.pathLength - 1;
+	}
+
+	/**
+	 * @param state index of the state
+	 * @return index of the state chosen by the greedy policy, the state itself if it has no action
+	 */
+	public int getNext(int state) {
+		return this.next[state];
+	}
+
+	/**
+	 * @return number of states in the path of the last rollout, the first one included
+	 */
+	public int getPathLength() {
+		return this.pathLength;
+	}
+
+	/**
+	 * @return the buffer holding the state indices of the last rollout in its first
+	 * getPathLength() entries, overwritten by the next rollout
+	 */
+	public int[] getPath() {
+		return this.path;
+	}
+
+}
@@ -0,0 +1,158 @@
+package qlearning;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Long-lived decision service over trained policies. For every trained goal cpu
+ * the greedy action of each state is precomputed into an int array, and the
+ * current configuration is turned into a state index with the mixed-radix
+ * arithmetic of the StateSpace, so a recommendation is a handful of array loads
+ * and allocates nothing. Lookups are lock free and can be issued from several
+ * threads while new policies are added.
+ *
+ * @author Federico Lombardi
+ */
+public class PolicyService {
+
+	private StateSpace stateSpace;
+	private Machine[] machines;
+	private List<State> states;
+
+	// policies[goalCpu][stateIndex] = index of the state to go to, null if the goal is not trained
+	private volatile int[][] policies;
+
+	private volatile PerformanceMetrics performanceMetrics; // lookups are timed only when set
+
+	public PolicyService(StateSpace stateSpace) {
+		this.stateSpace = stateSpace;
+		this.machines = stateSpace.getMachines();
+		this.states = stateSpace.getStates();
+		int maxCpu = 0;
+		for (int i=0; i<this.machines.length; ++i) {
+			maxCpu += this.machines[i].getCpu() * stateSpace.getMaxMachinePerType()[i];
+		}
+		this.policies = new int[maxCpu + 1][];
+	}
+
+	public StateSpace getStateSpace() {
+		return this.stateSpace;
+	}
+
+	/**
+	 * @param performanceMetrics receiver of the lookup latencies, null to stop timing the lookups
+	 */
+	public void setPerformanceMetrics(PerformanceMetrics performanceMetrics) {
+		this.performanceMetrics = performanceMetrics;
+	}
+
+	/**
+	 * Precompute the greedy policy of a solved engine built on the states of this service
+	 * @param solver
+	 */
+	public void addPolicy(Solver solver) {
+		int[] policy = new int[this.states.size()];
+		for (State s : this.states) {
+			policy[s.getStateId()-1] = solver.getPolicy(s).getStateId()-1;
+		}
+		addPolicy(solver.getGoalCpu(), policy);
+	}
+
+	/**
+	 * @param goalCpu
+	 * @param policy index of the state to go to for each state index
+	 */
+	public synchronized void addPolicy(int goalCpu, int[] policy) {
+		if (goalCpu < 0 || goalCpu >= this.policies.length)
+			throw new IllegalArgumentException("Goal cpu " + goalCpu + " is out of the state space");
+		if (policy.length != this.states.size())
+			throw new IllegalArgumentException("The policy must have one action for each state");
+		int[][] newPolicies = this.policies.clone();
+		newPolicies[goalCpu] = policy;
+		this.policies = newPolicies;
+	}
+
+	/**
+	 * @param goalCpu
+	 * @return true if a policy has been added for the goal
+	 */
+	public boolean hasPolicy(int goalCpu) {
+		return goalCpu >= 0 && goalCpu < this.policies.length && this.policies[goalCpu] != null;
+	}
+
+	/**
+	 * Next configuration to scale to.
+	 * The map must be keyed by the machines of the state space (see StateSpace.getMachines()),
+	 * missing machines count as zero.
+	 * @param current number of running machines of each type
+	 * @param goalCpu
+	 * @return the state to go to, the current state itself when no action improves it
+	 */
+	public State recommend(Map<Machine, Integer> current, int goalCpu) {
+		int key = 0;
+		for (int i=0; i<this.machines.length; ++i) {
+			Integer count = current.get(this.machines[i]);
+			if (count != null)
+				key += checkCount(i, count) * this.stateSpace.getRadixWeight(i);
+		}
+		return this.states.get(recommend(key - 1, goalCpu));
+	}
+
+	/**
+	 * Next configuration to scale to
+	 * @param current configuration built on the registry of the state space
+	 * @param goalCpu
+	 * @return the state to go to, the current state itself when no action improves it
+	 */
+	public State recommend(Configuration current, int goalCpu) {
+		if (current.getRegistry() != this.stateSpace.getRegistry())
+			throw new IllegalArgumentException("The configuration does not belong to the state space");
+		int key = 0;
+		for (int i=0; i<this.machines.length; ++i) {
+			key += checkCount(i, current.getCount(i)) * this.stateSpace.getRadixWeight(i);
+		}
+		return this.states.get(recommend(key - 1, goalCpu));
+	}
+
+	/**
+	 * Next configuration to scale to
+	 * @param counts number of running machines of each type, ordered as the state space types
+	 * @param goalCpu
+	 * @return the state to go to, the current state itself when no action improves it
+	 */
+	public State recommend(int[] counts, int goalCpu) {
+		int key = 0;
+		for (int i=0; i<this.machines.length; ++i) {
+			key += checkCount(i, counts[i]) * this.stateSpace.getRadixWeight(i);
+		}
+		return this.states.get(recommend(key - 1, goalCpu));
+	}
+
+	/**
+	 * @param stateIndex index of the current state
+	 * @param goalCpu
+	 * @return index of the state to go to
+	 */
+	public int recommend(int stateIndex, int goalCpu) {
+		PerformanceMetrics performanceMetrics = this.performanceMetrics;
+		long begin = performanceMetrics != null ? System.nanoTime() : 0L;
+		int[][] policies = this.policies;
+		if (goalCpu < 0 || goalCpu >= policies.length || policies[goalCpu] == null)
+			throw new IllegalArgumentException("No policy trained for goal cpu " + goalCpu);
+		if (stateIndex < 0)
+			throw new IllegalArgumentException("The empty configuration is not a state");
+		int next = policies[goalCpu][stateIndex];
+		if (performanceMetrics != null)
+			performanceMetrics.recordPolicyLookup(System.nanoTime() - begin);
+		return next;
+	}
+
+	private int checkCount(int type, int count) {
+		if (count < 0 || count > this.stateSpace.getMaxMachinePerType()[type])
+			throw new IllegalArgumentException("Illegal number of machines " + count + " for type " + this.machines[type].getType());
+		return count;
+	}
+
+}
@@ -0,0 +1,62 @@
+package qlearning;
+
+import java.util.Arrays;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Stop when at most maxChanges greedy actions changed over the last window episodes.
+ * A small tolerance is useful since the argmax between actions with almost the same
+ * Q value keeps flickering long after the avg step to reach a goal state is stable.
+ *
+ * @author Federico Lombardi
+ */
+public class PolicyStableStoppingRule implements StoppingRule {
+
+	private int window;
+	private int maxChanges;
+	private int[] changes; // changes of the last window episodes, circular
+	private int changesSum;
+	private int seenEpisodes;
+
+	/**
+	 * @param window number of consecutive episodes without any change
+	 */
+	public PolicyStableStoppingRule(int window) {
+		this(window, 0);
+	}
+
+	/**
+	 * @param window number of consecutive episodes
+	 * @param maxChanges greedy action changes tolerated in the window
+	 */
+	public PolicyStableStoppingRule(int window, int maxChanges) {
+		if (window < 1 || maxChanges < 0)
+			throw new IllegalArgumentException("The window must be positive and maxChanges not negative");
+		this.window = window;
+		this.maxChanges = maxChanges;
+		this.changes = new int[window];
+	}
+
+	@Override
+	public boolean shouldStop(int episode, double maxQDelta, int policyChanges) {
+		int slot = this.seenEpisodes % this.window;
+		this.changesSum += policyChanges - this.changes[slot];
+		this.changes[slot] = policyChanges;
+		++this.seenEpisodes;
+		return this.seenEpisodes >= this.window && this.changesSum <= this.maxChanges;
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(this.changes, 0);
+		this.changesSum = 0;
+		this.seenEpisodes = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "policy(window=" + this.window + ", maxChanges=" + this.maxChanges + ")";
+	}
+
+}
@@ -0,0 +1,194 @@
+package qlearning;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Prioritized sweeping over the known deterministic model of a QLearning.
+ * The states are kept in an indexed max-heap keyed by their Bellman error, the
+ * state with the largest error is backed up first and then only its predecessors,
+ * found through the transposed ActionGraph the QLearning shares, get their error
+ * updated. Starting from the lowest value every V only grows, so the best value of
+ * a predecessor is the max of its pending best and the one action towards the state
+ * just backed up: each update evaluates a single action instead of the whole row,
+ * read through the source edge of the reversed one. The values spread outward from
+ * the rewarded states near the goal and the states that would not change are never
+ * touched, so the same fixed point of ValueIterationSolver is reached without full
+ * sweeps. Goal states are terminal and never backed up.
+ *
+ * @author Federico Lombardi
+ */
+public class PrioritizedSweepingSolver implements Solver {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private List<State> states;
+	private ActionGraph graph;
+	private ActionGraph predecessors;
+	private double[] R;
+	private BitSet goal;
+	private double gamma;
+	private int cpu;
+
+	private double tolerance = 1e-9;
+	private long maxBackups;
+	private long backups;
+	private long updates;
+
+	private double[] V;
+	private double[] best; // value of the pending backup of each state
+	private double[] Q;
+	private IndexedMaxHeap queue;
+
+	/**
+	 * @param problem QLearning providing states, actions, rewards and discount
+	 */
+	public PrioritizedSweepingSolver(QLearning problem) {
+		this.states = problem.states;
+		this.graph = problem.graph;
+		this.predecessors = problem.predecessors;
+		this.R = problem.R;
+		this.goal = problem.goal;
+		this.gamma = problem.gamma;
+		this.cpu = problem.getGoalCpu();
+		int statesCount = graph.getStatesCount();
+		this.maxBackups = 10000L * statesCount;
+		this.V = new double[statesCount];
+		this.best = new double[statesCount];
+		this.Q = new double[graph.getEdgesCount()];
+		this.queue = new IndexedMaxHeap(statesCount);
+	}
+
+	/**
+	 * @param tolerance states whose Bellman error is not larger than this are not queued
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param maxBackups the solve stops after this number of state backups even if the queue is not empty
+	 */
+	public void setMaxBackups(long maxBackups) {
+		this.maxBackups = maxBackups;
+	}
+
+	/**
+	 * @return the states backed up by the last solve
+	 */
+	public long getBackups() {
+		return this.backups;
+	}
+
+	/**
+	 * @return the actions evaluated by the last solve: the full row of every state at the
+	 * start, then one action for each predecessor of every backed up state
+	 */
+	public long getUpdates() {
+		return this.updates;
+	}
+
+	/**
+	 * Back up the state with the largest Bellman error until no error is above the tolerance
+	 */
+	@Override
+	public void solve() {
+		int statesCount = graph.getStatesCount();
+		// V(s) is what QLearning.getMaxQ returns, which never goes below Double.MIN_VALUE
+		for (int s = 0; s < statesCount; ++s) {
+			V[s] = Double.MIN_VALUE;
+		}
+		backups = 0;
+		updates = 0;
+		while (!queue.isEmpty()) {
+			queue.pop();
+		}
+		for (int s = 0; s < statesCount; ++s) {
+			if (goal.get(s))
+				continue;
+			double value = Double.MIN_VALUE;
+			for (int e = graph.getFirstEdge(s); e < graph.getLastEdge(s); ++e) {
+				value = Math.max(value, R[e] + gamma * V[graph.getTarget(e)]);
+			}
+			best[s] = value;
+			updates += graph.getDegree(s);
+			if (value - V[s] > tolerance)
+				queue.push(s, value - V[s]);
+		}
+
+		while (!queue.isEmpty() && backups < maxBackups) {
+			int s = queue.pop();
+			V[s] = best[s];
+			++backups;
+
+			// only the states with an action to s see their error changed
+			for (int pe = predecessors.getFirstEdge(s); pe < predecessors.getLastEdge(s); ++pe) {
+				int p = predecessors.getTarget(pe);
+				if (goal.get(p))
+					continue;
+				double value = R[predecessors.getSourceEdge(pe)] + gamma * V[s];
+				++updates;
+				if (value > best[p]) {
+					best[p] = value;
+					if (value - V[p] > tolerance || queue.contains(p))
+						queue.push(p, value - V[p]);
+				}
+			}
+		}
+		logger.info("Prioritized sweeping stopped after {} state backups ({} actions evaluated), {} states left in the queue",
+				backups, updates, queue.size());
+
+		// a state whose best action did not change still has actions towards states that changed
+		for (int s = 0; s < statesCount; ++s) {
+			if (goal.get(s))
+				continue;
+			for (int e = graph.getFirstEdge(s); e < graph.getLastEdge(s); ++e) {
+				Q[e] = R[e] + gamma * V[graph.getTarget(e)];
+			}
+		}
+	}
+
+	@Override
+	public int getGoalCpu() {
+		return this.cpu;
+	}
+
+	@Override
+	public ActionGraph getActionGraph() {
+		return this.graph;
+	}
+
+	@Override
+	public double[] getQValues() {
+		return this.Q;
+	}
+
+	@Override
+	public double getQ(State s, State a) {
+		int edge = graph.getEdge(s.getStateId()-1, a.getStateId()-1);
+		return edge < 0 ? 0 : Q[edge];
+	}
+
+	/**
+	 * Same rule of QLearning.getPolicy: the action with the highest positive Q value
+	 */
+	@Override
+	public State getPolicy(State state) {
+		int stateIndex = state.getStateId()-1;
+		double maxValue = Double.MIN_VALUE;
+		State policyGotoState = state;
+		for (int e = graph.getFirstEdge(stateIndex); e < graph.getLastEdge(stateIndex); e++) {
+			if (Q[e] > maxValue) {
+				maxValue = Q[e];
+				policyGotoState = states.get(graph.getTarget(e));
+			}
+		}
+		return policyGotoState;
+	}
+
+}
@@ -2,12 +2,18 @@ package qlearning;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.text.DecimalFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +23,7 @@ import org.apache.logging.log4j.Logger;
  * Project of Learning in Autonomous Systems
  * @author Federico Lombardi
  */
-public class QLearning {
+public class QLearning implements Solver {
 	
 	static final Logger logger = LogManager.getLogger("midlab");
 	
@@ -26,12 +32,14 @@ public class QLearning {
     // path finding
     final double alpha = 0.1;
     final double gamma = 0.9;
+    int episodes = 2000;
  
     int maxCpu = 30;
     int cpu;
     int penalizationFactor;
     int maxReward;
     int penalty;
+    boolean onlyGoalStates;
     
     List<State> states;
     List<State> goalStates;
@@ -39,10 +47,34 @@ public class QLearning {
     
     Map<State, List<State>> actions;
     Map<Integer, List<State>> cpuValuesStateMap;
-    Map<State, Boolean> policyUpdated;
     
-    int[][] R; // reward lookup
-    double[][] Q;  // Q(s,a) = Q(s,a) + alpha * (R(s,a) + gamma * Max(next state, all actions) - Q(s,a)) 
+    // index-based view of the states (index = stateId-1) used by the training hot path
+    BitSet goal; // goal state flags
+    boolean[] policyUpdated; // visited flags, a plain array since parallel workers set them concurrently
+    int[] stateCpu; // cpu of each state
+    
+    ActionGraph graph; // CSR adjacency of the actions, one edge per (s,a)
+    double[] R; // reward lookup, indexed by edge, precomputed from the reward function
+    RewardFunction rewardFunction;
+    double[] Q;  // Q(s,a) = Q(s,a) + alpha * (R(s,a) + gamma * Max(next state, all actions) - Q(s,a)) 
+    
+    ActionGraph predecessors; // transposed graph, shared with the other QLearning of the same graph
+    ConvergenceTracker tracker; // incremental avg step to reach a goal state
+    int evaluationInterval = 1; // episodes between two samples of the avg step
+    TrainingMetricsSink metricsSink; // receiver of the per-episode metrics of run(), res.csv if not set
+    double episodeMaxQDelta; // highest |Q change| of the last tracked episode
+    ExplorationStrategy exploration = UniformExploration.INSTANCE;
+    StoppingRule stoppingRule; // optional early stop of the single-thread training
+    int episodesRun; // episodes run by the last single-thread training
+    int maxEpisodeSteps; // a greedy exploration can cycle without reaching a goal state
+    
+    boolean[] nearGoalTerminal; // goal states and states near to the goal cpu
+    PolicyRollout goalRollout; // greedy walk stopping on a goal state, built by the first rollout
+    PolicyRollout nearGoalRollout; // greedy walk stopping on a state near to the goal cpu, built by the first rollout
+    boolean rolloutStale; // Q changed since the rollouts were refreshed
+    PerformanceMetrics performanceMetrics; // optional counters of the training
+    ReplayBuffer replay; // optional memory of the real transitions, replayed after each step
+    int planningSteps; // replayed updates for each real step
   
     
     /**
@@ -55,6 +87,39 @@ public class QLearning {
      */
     public QLearning(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions,
     		int cpu, int penalizationFactor, boolean onlyGoalStates) {
+    	this(states, cpuValuesStateMap, actions, new ActionGraph(states, actions), cpu, penalizationFactor, onlyGoalStates);
+    }
+    
+    
+    /**
+     * Create a QLearning sharing an action graph already built for the same states and actions
+     * @param states
+     * @param cpuValuesStateMap
+     * @param actions
+     * @param graph
+     * @param cpu
+     * @param penalizationFactor
+     * @param onlyGoalStates
+     */
+    public QLearning(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions,
+    		ActionGraph graph, int cpu, int penalizationFactor, boolean onlyGoalStates) {
+    	this(states, cpuValuesStateMap, actions, graph, graph.transpose(), cpu, penalizationFactor, onlyGoalStates);
+    }
+    
+    
+    /**
+     * Create a QLearning sharing an action graph and its transpose, e.g. one of many trained on the same states
+     * @param states
+     * @param cpuValuesStateMap
+     * @param actions
+     * @param graph
+     * @param predecessors graph.transpose()
+     * @param cpu
+     * @param penalizationFactor
+     * @param onlyGoalStates
+     */
+    public QLearning(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions,
+    		ActionGraph graph, ActionGraph predecessors, int cpu, int penalizationFactor, boolean onlyGoalStates) {
     	logger.info("Creating QLearning Oject ..");
     	this.states = states;
     	this.cpuValuesStateMap = cpuValuesStateMap;
@@ -63,18 +128,167 @@ public class QLearning {
     	this.statesCount = states.size();
     	this.cpu = cpu;
     	this.penalizationFactor = penalizationFactor;
+    	this.onlyGoalStates = onlyGoalStates;
+    	this.maxEpisodeSteps = 100 * statesCount;
     	this.maxReward = (cpu - 1) * penalizationFactor;
     	this.penalty = (int) Math.round(Math.sqrt(penalizationFactor));
-    	R = new int[statesCount][statesCount];
-    	Q = new double[statesCount][statesCount];
-    	this.policyUpdated = new HashMap<State, Boolean>();
+    	this.graph = graph;
+    	this.predecessors = predecessors;
+    	R = new double[graph.getEdgesCount()];
+    	this.rewardFunction = new CpuDistanceReward(cpu, maxReward, penalty);
+    	Q = new double[graph.getEdgesCount()];
+    	this.goal = new BitSet(statesCount);
+    	for (State s : this.goalStates) {
+    		this.goal.set(s.getStateId()-1);
+    	}
+    	this.stateCpu = new int[statesCount];
+    	this.policyUpdated = new boolean[statesCount];
     	for (State s : this.states) {
-    		if (goalStates.contains(s))
-    			this.policyUpdated.put(s, true);
-    		else
-    			this.policyUpdated.put(s, false);
+    		this.stateCpu[s.getStateId()-1] = s.getCpu();
+    		this.policyUpdated[s.getStateId()-1] = this.goal.get(s.getStateId()-1);
     	}
         init(onlyGoalStates);
+        
+        // the policy walk stops on a goal state or on a state near to the goal cpu
+        this.nearGoalTerminal = new boolean[statesCount];
+        for (int s = 0; s < statesCount; s++) {
+        	nearGoalTerminal[s] = Math.abs(stateCpu[s]-this.cpu) < 3 || goal.get(s);
+        }
+        this.tracker = new ConvergenceTracker(graph, predecessors, Q, nearGoalTerminal);
+    }
+    
+    
+    @Override
+    public int getGoalCpu() {
+    	return this.cpu;
+    }
+    
+    
+    @Override
+    public ActionGraph getActionGraph() {
+    	return this.graph;
+    }
+    
+    
+    @Override
+    public double[] getQValues() {
+    	return this.Q;
+    }
+    
+    
+    /**
+     * Replace the Q values, e.g. with the ones computed by another engine
+     * @param values Q values indexed by edge
+     */
+    public void setQValues(double[] values) {
+    	if (values.length != Q.length)
+    		throw new IllegalArgumentException("The Q values must have one value for each action");
+    	System.arraycopy(values, 0, Q, 0, Q.length);
+    	tracker.reset();
+    	rolloutStale = true;
+    }
+    
+    
+    /**
+     * Train on the calling thread without writing any metrics
+     */
+    @Override
+    public void solve() {
+    	train(new SplittableRandom());
+    }
+    
+    
+    /**
+     * @param exploration action selection used by the episodes
+     */
+    public void setExploration(ExplorationStrategy exploration) {
+    	this.exploration = exploration;
+    }
+    
+    
+    /**
+     * @param stoppingRule rule ending the single-thread training before all the episodes, null to run them all
+     */
+    public void setStoppingRule(StoppingRule stoppingRule) {
+    	this.stoppingRule = stoppingRule;
+    }
+    
+    
+    /**
+     * @param maxEpisodeSteps steps after which an episode ends even if no goal state is reached
+     */
+    public void setMaxEpisodeSteps(int maxEpisodeSteps) {
+    	if (maxEpisodeSteps < 1)
+    		throw new IllegalArgumentException("The max steps of an episode must be positive");
+    	this.maxEpisodeSteps = maxEpisodeSteps;
+    }
+    
+    
+    /**
+     * @return episodes run by the last call of run() or train()
+     */
+    public int getEpisodesRun() {
+    	return this.episodesRun;
+    }
+    
+    
+    /**
+     * Set where run() reports the metrics of each episode, instead of res.csv
+     * @param metricsSink
+     */
+    public void setMetricsSink(TrainingMetricsSink metricsSink) {
+    	this.metricsSink = metricsSink;
+    }
+    
+    
+    /**
+     * Set how often the avg step to reach a goal state is sampled and written to res.csv
+     * @param evaluationInterval number of episodes between two samples
+     */
+    public void setEvaluationInterval(int evaluationInterval) {
+    	if (evaluationInterval < 1)
+    		throw new IllegalArgumentException("The evaluation interval must be positive");
+    	this.evaluationInterval = evaluationInterval;
+    }
+ 
+    
+    /**
+     * Count episodes, Q updates and evaluation times of the training
+     * @param performanceMetrics the metrics, null to disable them
+     */
+    public void setPerformanceMetrics(PerformanceMetrics performanceMetrics) {
+    	this.performanceMetrics = performanceMetrics;
+    }
+    
+    
+    /**
+     * Dyna-Q style planning: every real transition is stored and, after each real step,
+     * planningSteps transitions drawn from the buffer update Q again, so the rewards near
+     * the goal flow back in fewer episodes. Only the single-thread training replays.
+     * @param capacity number of transitions kept, 0 to disable the replay
+     * @param planningSteps replayed updates for each real step
+     */
+    public void setExperienceReplay(int capacity, int planningSteps) {
+    	if (capacity < 0 || planningSteps < 0)
+    		throw new IllegalArgumentException("The capacity and the planning steps must not be negative");
+    	this.replay = capacity > 0 && planningSteps > 0 ? new ReplayBuffer(capacity) : null;
+    	this.planningSteps = planningSteps;
+    }
+    
+    
+    /**
+     * Replace the reward function and recompute the rewards, before training
+     * @param rewardFunction
+     */
+    public void setRewardFunction(RewardFunction rewardFunction) {
+    	this.rewardFunction = rewardFunction;
+    	Arrays.fill(R, 0D);
+    	init(onlyGoalStates);
+    }
+    
+    
+    public RewardFunction getRewardFunction() {
+    	return this.rewardFunction;
     }
  
     
@@ -83,11 +297,13 @@ public class QLearning {
      */
     public void init(boolean onlyGoalStates) {  
     	
+    	boolean debug = logger.isDebugEnabled();
     	if (onlyGoalStates) {
+    		// only the actions reaching a goal state are rewarded
     		for (State currentState : goalStates) {
         		List<State> stateNearToCurrentState = actions.get(currentState);
         		for (State s : stateNearToCurrentState) {
-        			R[s.getStateId()-1][currentState.getStateId()-1] = this.maxReward;
+        			R[graph.getEdge(s.getStateId()-1, currentState.getStateId()-1)] = rewardFunction.reward(s, currentState);
         		}
         	}
     	}
@@ -96,10 +312,11 @@ public class QLearning {
     		for (State currentState : states) {
         		List<State> stateNearToCurrentState = actions.get(currentState);
         		for (State s : stateNearToCurrentState) {
-        			R[currentState.getStateId()-1][s.getStateId()-1] = this.maxReward - (this.maxReward/this.penalty)*Math.abs(this.cpu - s.getCpu());
+        			int edge = graph.getEdge(currentState.getStateId()-1, s.getStateId()-1);
+        			R[edge] = rewardFunction.reward(currentState, s);
         			
-        			logger.info(s.getStateId() + " " + currentState.getStateId() + " R=" +
-        					R[currentState.getStateId()-1][s.getStateId()-1]);
+        			if (debug)
+        				logger.debug("{} {} R={}", s.getStateId(), currentState.getStateId(), R[edge]);
         		}
         	}
     	}
@@ -126,89 +343,246 @@ public class QLearning {
         // For each episode
     	
     	logger.info("Q-Learning is running..");
-        Random rand = new Random();
-        State startState = null;
-        PrintWriter w = new PrintWriter(new File("res.csv"));
-        for (int i = 0; i < 2000; i++) { // train episodes
+        SplittableRandom rand = new SplittableRandom();
+        TrainingMetricsSink sink = metricsSink != null ? metricsSink : new CsvMetricsSink(new File("res.csv"));
+        long begin = System.nanoTime();
+        if (stoppingRule != null)
+        	stoppingRule.reset();
+        episodesRun = 0;
+        boolean stop = false;
+        for (int i = 0; i < episodes && !stop; i++) { // train episodes
             
         	// Select random initial state
-            int stateId = rand.nextInt(statesCount);
-            State state = states.get(stateId);
-            if (startState == null)
-            	startState = state;
-             
-            while (!goalStates.contains(state)) { // goal state
-            	logger.debug("\nITERATION "+i+": selected state "+state.getStateId());
-                           
-            	 if (!policyUpdated.get(state))
-              		policyUpdated.put(state, true);
-            	
-            	// Select one among all possible actions for the current state
-                List<State> actionsFromState = actions.get(state);
-                                
-                // Selection strategy is random in this example
-                int index = rand.nextInt(actionsFromState.size());
-                State action = actionsFromState.get(index);
-                logger.debug("selected action "+action+" with random index "+index);
-                
-                // Action outcome is set to deterministic in this example
-                // Transition probability is 1
-                State nextState = action; // data structure
-                logger.debug("next state: "+nextState.getStateId());
-                
-                // Using this possible action, consider to go to the next state
-                double q = getQ(state, action);
-                double maxQ = getMaxQ(nextState);
-                int r = getR(state, action);
-                
-                double value = q + alpha * (r + gamma * maxQ - q);
-                setQ(state, action, value);
- 
-                logger.debug("\n\tq="+q+"\n\tmax_q="+maxQ+"\n\tr="+r+"\n\tvalue="+value);
-                                
-                /*
-                try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-                */
-                
-                // Set the next state as the current state
-                state = nextState;
-            }
+            int stateIndex = rand.nextInt(statesCount);
+            long policyChanges = tracker.getPolicyChanges();
+            int steps = runEpisode(i, stateIndex, rand, true);
+            episodesRun++;
+            stop = stoppingRule != null
+            		&& stoppingRule.shouldStop(i, episodeMaxQDelta, (int) (tracker.getPolicyChanges() - policyChanges));
             
-            // Compute avg step to reach a goal state
-            double sumStep = 0D;
-            for (State s : states) {
-            	int step = stepToNearGoal(null, s, 0);
-            	if (step == 0) step = 1;
-            	logger.debug(s.toString() + " - step to goal = " + step);
-            	sumStep += step;
+            // Compute avg step to reach a goal state, only the states whose policy changed are walked again
+            double avg = Double.NaN;
+            if (i % evaluationInterval == 0 || i == episodes - 1 || stop) {
+            	long beginEvaluation = System.nanoTime();
+            	avg = tracker.getAverageSteps();
+            	if (performanceMetrics != null)
+            		performanceMetrics.recordEvaluation(System.nanoTime() - beginEvaluation);
             }
-            double avg = sumStep / states.size();
-            w.println(i + "\t" + avg);
-            w.flush();
+            sink.record(i, steps, avg, episodeMaxQDelta, System.nanoTime() - begin);
             
             /*
             showPolicy();
             System.out.println("found policy in " +count+ " iteration.");
             */
+        }
+        sink.close();
+        logStop();
+    }
+    
+    
+    private void logStop() {
+    	if (episodesRun < episodes)
+    		logger.info("Stopped by " + stoppingRule + " after " + episodesRun + " episodes, "
+    				+ (episodes - episodesRun) + " episodes saved.");
+    }
+    
+    
+    /**
+     * Run all the episodes on the calling thread without writing res.csv
+     * @param rand
+     */
+    void train(SplittableRandom rand) {
+    	if (stoppingRule != null)
+    		stoppingRule.reset();
+    	episodesRun = 0;
+    	for (int i = 0; i < episodes; i++) { // train episodes
+    		long policyChanges = tracker.getPolicyChanges();
+    		runEpisode(i, rand.nextInt(statesCount), rand, true);
+    		episodesRun++;
+    		if (stoppingRule != null
+    				&& stoppingRule.shouldStop(i, episodeMaxQDelta, (int) (tracker.getPolicyChanges() - policyChanges)))
+    			break;
+    	}
+    	logStop();
+    }
+    
+    
+    /**
+     * Run episodes on the calling thread until the avg step to reach a state near to
+     * the goal is at most the target, without writing res.csv
+     * @param targetAvgSteps
+     * @param rand
+     * @return the episodes run, -1 if the target is not reached within the episodes
+     */
+    int trainUntil(double targetAvgSteps, SplittableRandom rand) {
+    	episodesRun = 0;
+    	for (int i = 0; i < episodes; i++) { // train episodes
+    		runEpisode(i, rand.nextInt(statesCount), rand, true);
+    		episodesRun++;
+    		if (tracker.getAverageSteps() <= targetAvgSteps)
+    			return episodesRun;
+    	}
+    	return -1;
+    }
+    
+    
+    /**
+     * Train with several workers running episodes concurrently on the shared Q table.
+     * Updates are lock free (Hogwild style): two workers may rarely overwrite each
+     * other's update of the same (s,a), which only slows down convergence a bit.
+     * The avg step to reach a goal state is computed once at the end and the
+     * stopping rule is not applied.
+     * @param workers number of worker threads
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    void runParallel(final int workers) throws InterruptedException, ExecutionException {
+    	
+    	logger.info("Q-Learning is running with " + workers + " workers..");
+    	SplittableRandom masterRand = new SplittableRandom();
+    	List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    	for (int k = 0; k < workers; k++) {
+    		final int worker = k;
+    		final SplittableRandom rand = masterRand.split();
+    		tasks.add(new Callable<Void>() {
+    			@Override
+    			public Void call() {
+    				for (int i = worker; i < episodes; i += workers) { // train episodes
+    					runEpisode(i, rand.nextInt(statesCount), rand, false);
+    				}
+    				return null;
+    			}
+    		});
+    	}
+    	
+    	ExecutorService pool = Executors.newFixedThreadPool(workers);
+    	try {
+    		for (Future<Void> f : pool.invokeAll(tasks)) {
+    			f.get();
+    		}
+    	}
+    	finally {
+    		pool.shutdown();
+    	}
+    	
+    	// the tracker is not thread safe, rebuild the policy from the final Q values
+    	tracker.reset();
+    	logger.info("Avg step to reach a goal state: " + tracker.getAverageSteps());
+    }
+    
+    
+    /**
+     * Walk from the given state choosing actions with the exploration strategy until a goal state is reached,
+     * updating Q at each step
+     * @param episode number of the episode, for logging
+     * @param stateIndex index of the initial state
+     * @param rand
+     * @param track whether the convergence tracker and episodeMaxQDelta must be updated (single thread only)
+     * @return number of steps taken to reach a goal state, maxEpisodeSteps if it was not reached
+     */
+    int runEpisode(int episode, int stateIndex, SplittableRandom rand, boolean track) {
+    	
+    	int steps = 0;
+    	long replayed = 0; // Q updates of the planning, on top of one for each step
+    	if (track)
+    		episodeMaxQDelta = 0D;
+    	// checked once, so the disabled debug logging costs nothing in the loop
+    	boolean debug = logger.isDebugEnabled();
+        while (!goal.get(stateIndex) && steps < maxEpisodeSteps) { // goal state
+        	if (debug)
+        		logger.debug("\nITERATION {}: selected state {}", episode, stateIndex+1);
+                       
+        	if (!policyUpdated[stateIndex])
+          		policyUpdated[stateIndex] = true;
+        	
+        	// Select one among all possible actions for the current state
+        	int degree = graph.getDegree(stateIndex);
+                            
+            // Selection strategy is pluggable, uniform random by default
+            int edge = exploration.selectEdge(graph, Q, stateIndex, episode, rand);
+            int action = graph.getTarget(edge);
+            if (debug)
+            	logger.debug("selected action {} among {} actions", action+1, degree);
+            
+            // Action outcome is set to deterministic in this example
+            // Transition probability is 1
+            int nextState = action; // data structure
+            if (debug)
+            	logger.debug("next state: {}", nextState+1);
+            
+            // Using this possible action, consider to go to the next state
+            double q = Q[edge];
+            double maxQ = getMaxQ(nextState);
+            double r = R[edge];
+            
+            double value = q + alpha * (r + gamma * maxQ - q);
+            Q[edge] = value;
+            if (track) {
+            	tracker.update(stateIndex, edge);
+            	episodeMaxQDelta = Math.max(episodeMaxQDelta, Math.abs(value - q));
+            }
+
+            if (debug)
+            	logger.debug("\n\tq={}\n\tmax_q={}\n\tr={}\n\tvalue={}", q, maxQ, r, value);
+            
+            // Planning: update again some transitions seen before, the buffer is not shared between threads
+            if (replay != null && track) {
+            	replay.add(stateIndex, edge, r, nextState);
+            	for (int k = 0; k < planningSteps; k++) {
+            		int slot = replay.sample(rand);
+            		int replayEdge = replay.getEdge(slot);
+            		double replayQ = Q[replayEdge];
+            		double replayValue = replayQ + alpha * (replay.getReward(slot) + gamma * getMaxQ(replay.getNextState(slot)) - replayQ);
+            		Q[replayEdge] = replayValue;
+            		tracker.update(replay.getState(slot), replayEdge);
+            		episodeMaxQDelta = Math.max(episodeMaxQDelta, Math.abs(replayValue - replayQ));
+            	}
+            	replayed += planningSteps;
+            }
+                            
+            /*
+            try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+            */
             
-            state = null;
+            // Set the next state as the current state
+            stateIndex = nextState;
+            steps++;
         }
-        w.close();
+        if (steps > 0)
+        	rolloutStale = true;
+        if (performanceMetrics != null)
+        	performanceMetrics.recordEpisode(steps, steps + replayed);
+        return steps;
     }
  
    
+    /**
+     * Incremental Q update of a transition observed outside of the episodes, e.g. by the OnlineController
+     * @param stateIndex index of the state the action was taken from
+     * @param edge the action taken
+     * @param reward the observed reward
+     */
+    void learn(int stateIndex, int edge, double reward) {
+    	double q = Q[edge];
+    	Q[edge] = q + alpha * (reward + gamma * getMaxQ(graph.getTarget(edge)) - q);
+    	tracker.update(stateIndex, edge);
+    	rolloutStale = true;
+    }
+    
+    
     /**
      * 
      * @param s
      * @param a
      * @return
      */
-    int getR(State s, State a) {
-        return R[s.getStateId()-1][a.getStateId()-1];
+    double getR(State s, State a) {
+        int edge = graph.getEdge(s.getStateId()-1, a.getStateId()-1);
+        return edge < 0 ? 0 : R[edge];
     }
   
     
@@ -218,8 +592,10 @@ public class QLearning {
      * @param a
      * @return
      */
-    double getQ(State s, State a) {
-        return Q[s.getStateId()-1][a.getStateId()-1];
+    @Override
+    public double getQ(State s, State a) {
+        int edge = graph.getEdge(s.getStateId()-1, a.getStateId()-1);
+        return edge < 0 ? 0D : Q[edge];
     }
  
     
@@ -227,7 +603,12 @@ public class QLearning {
      * 
      */
     void setQ(State s, State a, double value) {
-        Q[s.getStateId()-1][a.getStateId()-1] = value;
+        int edge = graph.getEdge(s.getStateId()-1, a.getStateId()-1);
+        if (edge < 0)
+        	throw new IllegalArgumentException("No action from state " + s.getStateId() + " to state " + a.getStateId());
+        Q[edge] = value;
+        tracker.update(s.getStateId()-1, edge);
+        rolloutStale = true;
     }
  
 
@@ -237,11 +618,19 @@ public class QLearning {
      * @return
      */
      double getMaxQ(State s) {
-         List<State> actionsFromState = actions.get(s);
+         return getMaxQ(s.getStateId()-1);
+     }
+     
+     
+    /**
+     *  
+     * @param stateIndex index of the state
+     * @return
+     */
+     double getMaxQ(int stateIndex) {
          double maxValue = Double.MIN_VALUE;
-         for (int i = 0; i < actionsFromState.size(); i++) {
-             State nextState = actionsFromState.get(i);
-             double value = Q[s.getStateId()-1][nextState.getStateId()-1];
+         for (int e = graph.getFirstEdge(stateIndex); e < graph.getLastEdge(stateIndex); e++) {
+             double value = Q[e];
   
              if (value > maxValue) {
              	maxValue = value;
@@ -258,88 +647,74 @@ public class QLearning {
      * @return
      */
     // get policy from state
-    State getPolicy(State state) {
-        List<State> actionsFromState = actions.get(state);
+    @Override
+    public State getPolicy(State state) {
+        int stateIndex = state.getStateId()-1;
         double maxValue = Double.MIN_VALUE;
         State policyGotoState = state; // default goto self if not found
-        for (int i = 0; i < actionsFromState.size(); i++) {
-            State nextState = actionsFromState.get(i);
-            double value = Q[state.getStateId()-1][nextState.getStateId()-1];
+        for (int e = graph.getFirstEdge(stateIndex); e < graph.getLastEdge(stateIndex); e++) {
+            double value = Q[e];
  
             if (value > maxValue) {
                 maxValue = value;
-                policyGotoState = nextState;
+                policyGotoState = states.get(graph.getTarget(e));
             }
         }
         return policyGotoState;
     }
     
     /**
-     * 
+     * Steps the greedy policy needs to reach a goal state from the state.
+     * The visited states are then available with getRolloutPath().
      * @param state
-     * @return
+     * @return the steps, ConvergenceTracker.UNREACHABLE_STEPS if the policy never reaches a goal state
      */
-    public int stepToGoal(State from, State state, int count) {
-    	
-    	// to avoid infinite loop
-    	if (count > 50) 
-    		return 1000;
-    	
-    	// base case 1
-    	if (state.equals(from))
-    		return 0;
-    	
-    	// base case 2
-    	if (goalStates.contains(state))
-    		return 0;
-    	
-    	// recursive step
-    	else {
-    		State to = getPolicy(state);
-    		while (to.equals(from) || state.equals(to)) {
-        			Random rand = new Random();
-        			List<State> stateList = actions.get(state);
-        			int stateIndex = rand.nextInt(stateList.size());
-                    to = stateList.get(stateIndex);
-    		}
-    		return 1+stepToGoal(state, to, count+1);
-    	}
+    public int stepToGoal(State state) {
+    	return rollout(false, state);
     }
     
     /**
-     * 
+     * Steps the greedy policy needs to reach a goal state or a state near to the goal cpu
      * @param state
-     * @return
+     * @return the steps, ConvergenceTracker.UNREACHABLE_STEPS if the policy never reaches one
      */
-    public int stepToNearGoal(State from, State state, int count) {
-    	
-    	// base case 1
-    	if (Math.abs(state.getCpu()-this.cpu) < 3)
-    		return 0;
-    	
-    	// tp avoid infinite loop
-    	if (count > 50) 
-    		return 1000;
-    	
-    	// base case 2
-    	if (state.equals(from))
-    		return 0;
-    	
-    	// base case 3
-    	if (goalStates.contains(state))
-    		return 0;
-    	
-    	// recursive step
-    	else {
-    		State to = getPolicy(state);
-    		while (to.equals(from) || state.equals(to)) {
-        			Random rand = new Random();
-        			List<State> stateList = actions.get(state);
-        			int stateIndex = rand.nextInt(stateList.size());
-                    to = stateList.get(stateIndex);
+    public int stepToNearGoal(State state) {
+    	return rollout(true, state);
+    }
+    
+    /**
+     * Path of the last stepToGoal or stepToNearGoal, e.g. to explain a scaling decision
+     * @param nearGoal true for the path of stepToNearGoal
+     * @return the states from the starting one to the reached one
+     */
+    public List<State> getRolloutPath(boolean nearGoal) {
+    	PolicyRollout rollout = nearGoal ? nearGoalRollout : goalRollout;
+    	if (rollout == null)
+    		return new ArrayList<State>();
+    	List<State> path = new ArrayList<State>(rollout.getPathLength());
+    	for (int i = 0; i < rollout.getPathLength(); i++) {
+    		path.add(states.get(rollout.getPath()[i]));
+    	}
+    	return path;
+    }
+    
+    private int rollout(boolean nearGoal, State state) {
+    	if (goalRollout == null) {
+    		// most QLearning never walk the policy this way, e.g. the ones of a multi-goal training
+    		boolean[] goalTerminal = new boolean[statesCount];
+    		for (int s = 0; s < statesCount; s++) {
+    			goalTerminal[s] = goal.get(s);
     		}
-    		return 1+stepToNearGoal(state, to, count+1);
+    		goalRollout = new PolicyRollout(graph, Q, goalTerminal);
+    		nearGoalRollout = new PolicyRollout(graph, Q, nearGoalTerminal);
+    		rolloutStale = false;
+    	}
+    	else if (rolloutStale) {
+    		rolloutStale = false;
+    		goalRollout.refresh();
+    		nearGoalRollout.refresh();
     	}
+    	return (nearGoal ? nearGoalRollout : goalRollout).rollout(state.getStateId()-1);
     }
     
     
@@ -348,10 +723,10 @@ public class QLearning {
      */
     void printResult() {
         logger.info("Print result");
-        for (int i = 0; i < Q.length; i++) {
+        for (int i = 0; i < statesCount; i++) {
             System.out.print("out from " + states.get(i) + ":  ");
-            for (int j = 0; j < Q[i].length; j++) {
-                System.out.print(df.format(Q[i][j]) + " ");
+            for (int e = graph.getFirstEdge(i); e < graph.getLastEdge(i); e++) {
+                System.out.print((graph.getTarget(e)+1) + "=" + df.format(Q[e]) + " ");
             }
             System.out.println();
         }
@@ -366,7 +741,7 @@ public class QLearning {
         logger.info("showPolicy");
         for (int i = 0; i < states.size(); i++) {
             State from = states.get(i);
-            if (this.policyUpdated.get(from)) {
+            if (this.policyUpdated[from.getStateId()-1]) {
             	State to = getPolicy(from);
                 logger.info("from "+states.get(from.getStateId()-1)+" goto "+states.get(to.getStateId()-1));
             }
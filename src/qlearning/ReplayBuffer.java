@@ -0,0 +1,97 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Fixed-capacity memory of the real transitions for Dyna-Q style planning.
+ * Transitions are kept in parallel primitive arrays (state, edge, reward, next state),
+ * so adding one is four array stores and allocates nothing; when the buffer is full
+ * the oldest transition is overwritten. Not thread safe: a buffer belongs to one
+ * training thread.
+ *
+ * @author Federico Lombardi
+ */
+public class ReplayBuffer {
+
+	private int[] states;
+	private int[] edges;
+	private double[] rewards;
+	private int[] nextStates;
+	private int size;
+	private int next; // slot of the next transition
+
+	/**
+	 * @param capacity number of transitions kept
+	 */
+	public ReplayBuffer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		this.states = new int[capacity];
+		this.edges = new int[capacity];
+		this.rewards = new double[capacity];
+		this.nextStates = new int[capacity];
+	}
+
+	/**
+	 * @param state index of the state the action is taken from
+	 * @param edge index of the action in the ActionGraph
+	 * @param reward
+	 * @param nextState index of the state reached
+	 */
+	public void add(int state, int edge, double reward, int nextState) {
+		int i = this.next;
+		this.states[i] = state;
+		this.edges[i] = edge;
+		this.rewards[i] = reward;
+		this.nextStates[i] = nextState;
+		this.next = i + 1 == this.edges.length ? 0 : i + 1;
+		if (this.size < this.edges.length)
+			++this.size;
+	}
+
+	/**
+	 * @param rand
+	 * @return slot of a transition drawn uniformly, the buffer must not be empty
+	 */
+	public int sample(SplittableRandom rand) {
+		return rand.nextInt(this.size);
+	}
+
+	public int getState(int slot) {
+		return this.states[slot];
+	}
+
+	public int getEdge(int slot) {
+		return this.edges[slot];
+	}
+
+	public double getReward(int slot) {
+		return this.rewards[slot];
+	}
+
+	public int getNextState(int slot) {
+		return this.nextStates[slot];
+	}
+
+	/**
+	 * @return number of transitions kept
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public int getCapacity() {
+		return this.edges.length;
+	}
+
+	/**
+	 * Forget all the transitions
+	 */
+	public void clear() {
+		this.size = 0;
+		this.next = 0;
+	}
+
+}
@@ -0,0 +1,21 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Reward of an action. QLearning evaluates it once per action when the rewards
+ * are initialized and stores the result by edge, so an implementation can be
+ * as expensive as needed without slowing down the training.
+ *
+ * @author Federico Lombardi
+ */
+public interface RewardFunction {
+
+	/**
+	 * @param s current state
+	 * @param a state reached by the action
+	 * @return the reward of going from s to a
+	 */
+	double reward(State s, State a);
+
+}
@@ -0,0 +1,89 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * In-memory sink keeping the last records in fixed-size primitive arrays.
+ * Records are read from the oldest (index 0) to the newest (index size()-1);
+ * reads must happen on the training thread or after the training is over.
+ *
+ * @author Federico Lombardi
+ */
+public class RingBufferMetricsSink implements TrainingMetricsSink {
+
+	private int[] episodes;
+	private int[] steps;
+	private double[] avgSteps;
+	private double[] maxQDeltas;
+	private long[] wallTimes;
+	private long count;
+
+	/**
+	 * @param capacity number of records kept
+	 */
+	public RingBufferMetricsSink(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		this.episodes = new int[capacity];
+		this.steps = new int[capacity];
+		this.avgSteps = new double[capacity];
+		this.maxQDeltas = new double[capacity];
+		this.wallTimes = new long[capacity];
+	}
+
+	@Override
+	public void record(int episode, int steps, double avgSteps, double maxQDelta, long wallTimeNanos) {
+		int i = (int) (this.count % this.episodes.length);
+		this.episodes[i] = episode;
+		this.steps[i] = steps;
+		this.avgSteps[i] = avgSteps;
+		this.maxQDeltas[i] = maxQDelta;
+		this.wallTimes[i] = wallTimeNanos;
+		++this.count;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return number of records kept
+	 */
+	public int size() {
+		return (int) Math.min(this.count, this.episodes.length);
+	}
+
+	/**
+	 * @return number of records received, including the overwritten ones
+	 */
+	public long getRecordedCount() {
+		return this.count;
+	}
+
+	private int slot(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		return (int) ((this.count - size() + index) % this.episodes.length);
+	}
+
+	public int getEpisode(int index) {
+		return this.episodes[slot(index)];
+	}
+
+	public int getSteps(int index) {
+		return this.steps[slot(index)];
+	}
+
+	public double getAvgSteps(int index) {
+		return this.avgSteps[slot(index)];
+	}
+
+	public double getMaxQDelta(int index) {
+		return this.maxQDeltas[slot(index)];
+	}
+
+	public long getWallTimeNanos(int index) {
+		return this.wallTimes[slot(index)];
+	}
+
+}
@@ -0,0 +1,194 @@
+package qlearning;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * In-process bounded queue of cpu demand samples, kept in a ring of doubles so that
+ * nothing is boxed. When the samples arrive faster than the controller decides,
+ * put() blocks the producer until a slot is free (backpressure) instead of letting
+ * the backlog, and so the age of the decisions, grow without bound; offer() gives up
+ * after a timeout for producers that must not block. The waits of the producers
+ * are counted.
+ *
+ * @author Federico Lombardi
+ */
+public class SampleQueue implements SampleSource {
+
+	private final double[] samples;
+	private int head; // next sample to take
+	private int count;
+	private boolean closed;
+	private long blockedPuts;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * @param capacity number of samples waiting at most
+	 */
+	public SampleQueue(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive");
+		this.samples = new double[capacity];
+	}
+
+	/**
+	 * Add a sample, waiting while the queue is full
+	 * @param demand
+	 * @throws InterruptedException
+	 */
+	public void put(double demand) throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			if (this.count == this.samples.length && !this.closed)
+				++this.blockedPuts;
+			while (this.count == this.samples.length && !this.closed)
+				this.notFull.await();
+			enqueue(demand);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Add a sample, waiting at most the timeout while the queue is full
+	 * @param demand
+	 * @param timeout
+	 * @param unit
+	 * @return false if the queue was still full after the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean offer(double demand, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		this.lock.lockInterruptibly();
+		try {
+			if (this.count == this.samples.length && !this.closed)
+				++this.blockedPuts;
+			while (this.count == this.samples.length && !this.closed) {
+				if (nanos <= 0L)
+					return false;
+				nanos = this.notFull.awaitNanos(nanos);
+			}
+			enqueue(demand);
+			return true;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	private void enqueue(double demand) {
+		if (this.closed)
+			throw new IllegalStateException("The sample queue is closed");
+		int tail = this.head + this.count;
+		if (tail >= this.samples.length)
+			tail -= this.samples.length;
+		this.samples[tail] = demand;
+		++this.count;
+		this.notEmpty.signal();
+	}
+
+	@Override
+	public double take() throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			while (this.count == 0) {
+				if (this.closed)
+					return Double.NaN;
+				this.notEmpty.await();
+			}
+			double demand = this.samples[this.head];
+			this.head = this.head + 1 == this.samples.length ? 0 : this.head + 1;
+			--this.count;
+			this.notFull.signal();
+			return demand;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * No more samples can be added, the ones already queued can still be taken
+	 */
+	@Override
+	public void close() {
+		this.lock.lock();
+		try {
+			this.closed = true;
+			this.notEmpty.signalAll();
+			this.notFull.signalAll();
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Move the samples of a source into this queue on a daemon thread, which waits
+	 * while the queue is full; the queue is closed when the source ends
+	 * @param source
+	 * @return the started thread
+	 */
+	public Thread feed(final SampleSource source) {
+		Thread feeder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (double demand = source.take(); !Double.isNaN(demand); demand = source.take()) {
+						put(demand);
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				catch (IllegalStateException e) {
+					// the queue has been closed by the consumer
+				}
+				finally {
+					close();
+				}
+			}
+		}, "sample-feeder");
+		feeder.setDaemon(true);
+		feeder.start();
+		return feeder;
+	}
+
+	/**
+	 * @return number of samples waiting
+	 */
+	public int size() {
+		this.lock.lock();
+		try {
+			return this.count;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return this.samples.length;
+	}
+
+	/**
+	 * @return number of put() and offer() that found the queue full
+	 */
+	public long getBlockedPuts() {
+		this.lock.lock();
+		try {
+			return this.blockedPuts;
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+}
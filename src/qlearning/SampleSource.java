@@ -0,0 +1,24 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Stream of cpu demand samples consumed by the OnlineController.
+ *
+ * @author Federico Lombardi
+ */
+public interface SampleSource {
+
+	/**
+	 * Wait for the next sample
+	 * @return the cpu demand, NaN when the source is closed and has no more samples
+	 * @throws InterruptedException
+	 */
+	double take() throws InterruptedException;
+
+	/**
+	 * Stop the stream, a waiting take() returns NaN
+	 */
+	void close();
+
+}
@@ -0,0 +1,47 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Engine computing the Q values, and so the policy, of the autoscaling problem
+ * for one goal cpu. Q values are indexed by the edges of the action graph.
+ *
+ * @author Federico Lombardi
+ */
+public interface Solver {
+
+	/**
+	 * Compute the Q values
+	 * @throws Exception
+	 */
+	void solve() throws Exception;
+
+	/**
+	 * @return the goal cpu the rewards are built for
+	 */
+	int getGoalCpu();
+
+	/**
+	 * @return the action adjacency the Q values are indexed by
+	 */
+	ActionGraph getActionGraph();
+
+	/**
+	 * @return the Q values indexed by edge, not to be modified
+	 */
+	double[] getQValues();
+
+	/**
+	 * @param s
+	 * @param a
+	 * @return the Q value of the action from s to a, 0 if they are not linked
+	 */
+	double getQ(State s, State a);
+
+	/**
+	 * @param state
+	 * @return the state to go to from the given state
+	 */
+	State getPolicy(State state);
+
+}
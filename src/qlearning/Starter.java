@@ -1,17 +1,19 @@
 package qlearning;
 
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+
+import javax.management.JMException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.paukov.combinatorics.Factory;
-import org.paukov.combinatorics.Generator;
-import org.paukov.combinatorics.ICombinatoricsVector;
 
 
 /**
@@ -23,76 +25,168 @@ public class Starter {
 
 	static final Logger logger = LogManager.getLogger("midlab");
 	
+	static final int WARM_START_WINDOW = 200; // episodes of stable avg step ending a warm started training
+	static final double WARM_START_TOLERANCE = 0.02;
+	
 	/**
-	 * Build
+	 * Build one state for each distinct vector of machine counts
 	 * @return
 	 */
 	public static List<State> buildStates(String[] types, int[] maxMachinePerType){
-						
-		Map<String, Machine> mapMachineNamesMachine = new HashMap<String, Machine>();
-		ArrayList<String> machineNames = new ArrayList<String>();
-		
-		// create map and machine list
-		for (int i=0; i<types.length; ++i) {
-			for (int j=0; j<maxMachinePerType[i]; ++j) {
-				Machine machine = new Machine(types[i],i+1);
-				mapMachineNamesMachine.put(types[i], machine);
-				machineNames.add(types[i]);
-				logger.trace("Added machine "+machine.toString());
+		return new StateSpace(types, maxMachinePerType).getStates();
+	}
+	
+	/**
+	 * Build and solve the QLearning of every goal cpu with the given engine
+	 * @return the solved goals
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	static MultiGoalQLearning solveAllGoals(List<State> states, Map<Integer, List<State>> cpuValuesStateMap, Map<State, List<State>> actions,
+			int penalizationFactor, boolean onlyGoalState, double priceWeight, double latencyWeight, String engine, int workers)
+			throws InterruptedException, ExecutionException {
+		MultiGoalQLearning multiGoalObj = new MultiGoalQLearning(states, cpuValuesStateMap, actions, penalizationFactor, onlyGoalState);
+		for (int goal : multiGoalObj.getGoals()) {
+			QLearning goalObj = multiGoalObj.getQLearning(goal);
+			if (priceWeight != 0D || latencyWeight != 0D)
+				goalObj.setRewardFunction(new CostAwareReward(goalObj.getRewardFunction(), priceWeight, latencyWeight));
+			if (engine.equals("valueiteration")) {
+				ValueIterationSolver solver = new ValueIterationSolver(goalObj, workers);
+				solver.solve();
+				goalObj.setQValues(solver.getQValues());
+			}
+			else if (engine.equals("prioritized")) {
+				PrioritizedSweepingSolver solver = new PrioritizedSweepingSolver(goalObj);
+				solver.solve();
+				goalObj.setQValues(solver.getQValues());
 			}
 		}
-				
-		// create subsets
-		ICombinatoricsVector<String> initialSet = Factory.createVector(machineNames);
-		Generator<String> gen = Factory.createSubSetGenerator(initialSet);
-
-		// create configurations
-		int configId = 0;
-		ArrayList<Configuration> configurations = new ArrayList<Configuration>();
-		Map<Machine, Integer> mapMachineNumber = null;
-		
-		for (ICombinatoricsVector<String> subSet : gen) {
-			logger.trace(subSet);
-			
-			List<String> vector = subSet.getVector();
-			mapMachineNumber = new HashMap<Machine, Integer>();
-			
-			for (String machineName : vector) {
-				Machine machine = mapMachineNamesMachine.get(machineName);
-				if (mapMachineNumber.containsKey(machine)) {
-					int count = mapMachineNumber.get(machine) + 1;
-					mapMachineNumber.put(machine, count);
+		if (engine.equals("qlearning"))
+			multiGoalObj.run(workers);
+		return multiGoalObj;
+	}
+	
+	/**
+	 * Log the episodes and the time a warm start and a training from scratch take
+	 * to stop with the same stopping rule, and the avg step each one reaches.
+	 * The first training timed also pays the JIT compilation, so the pair is run
+	 * twice, once in each order, and both orders are logged.
+	 * @param obj QLearning whose states, actions and parameters are used
+	 * @param snapshot model of the previous inventory
+	 * @param stateSpace
+	 * @param stoppingRule rule of both trainings, null for the default rule of the warm start
+	 */
+	static void compareWarmStart(QLearning obj, ModelSnapshot snapshot, StateSpace stateSpace, StoppingRule stoppingRule) {
+		SplittableRandom rand = new SplittableRandom();
+		for (int round = 0; round < 2; ++round) {
+			boolean warmFirst = round == 1;
+			QLearning scratch = newComparisonRun(obj, stoppingRule);
+			QLearning warm = newComparisonRun(obj, stoppingRule);
+			long scratchTime = 0;
+			long warmTime = 0;
+			int warmEpisodes = 0;
+			for (int run = 0; run < 2; ++run) {
+				long beginRun = System.nanoTime();
+				if ((run == 0) == warmFirst) {
+					warmEpisodes = new WarmStart(snapshot, stateSpace, warm).train(rand.split());
+					warmTime = System.nanoTime() - beginRun;
+				}
+				else {
+					scratch.train(rand.split());
+					scratchTime = System.nanoTime() - beginRun;
 				}
-				else
-					mapMachineNumber.put(machine, 1);
 			}
+			logger.info("Warm start" + (warmFirst ? " (timed first)" : " (timed second)") + ": " + warmEpisodes + " episodes in "
+					+ warmTime / 1000000 + " ms (avg step " + warm.tracker.getAverageSteps() + "), from scratch: "
+					+ scratch.getEpisodesRun() + " episodes in " + scratchTime / 1000000 + " ms (avg step "
+					+ scratch.tracker.getAverageSteps() + "), " + (scratchTime - warmTime) / 1000000 + " ms saved.");
+		}
+	}
+	
+	private static QLearning newComparisonRun(QLearning obj, StoppingRule stoppingRule) {
+		QLearning run = new QLearning(obj.states, obj.cpuValuesStateMap, obj.actions, obj.graph, obj.cpu, obj.penalizationFactor, obj.onlyGoalStates);
+		run.setRewardFunction(obj.getRewardFunction());
+		run.setStoppingRule(stoppingRule != null ? stoppingRule : new AverageStepsStoppingRule(run, WARM_START_WINDOW, WARM_START_TOLERANCE));
+		return run;
+	}
+	
+	/**
+	 * Log how many real episodes the experience replay needs to come within 5% of the
+	 * avg step to a state near to the goal that a plain training reaches with all its episodes
+	 * @param obj QLearning whose states, actions and parameters are used
+	 * @param replayCapacity
+	 * @param planningSteps
+	 */
+	static void compareReplay(QLearning obj, int replayCapacity, int planningSteps) {
+		SplittableRandom rand = new SplittableRandom();
+		QLearning reference = new QLearning(obj.states, obj.cpuValuesStateMap, obj.actions, obj.graph, obj.cpu, obj.penalizationFactor, obj.onlyGoalStates);
+		reference.setRewardFunction(obj.getRewardFunction());
+		reference.train(rand.split());
+		double target = reference.tracker.getAverageSteps() * 1.05; // the last episodes only move the avg by noise
+		
+		QLearning plain = new QLearning(obj.states, obj.cpuValuesStateMap, obj.actions, obj.graph, obj.cpu, obj.penalizationFactor, obj.onlyGoalStates);
+		plain.setRewardFunction(obj.getRewardFunction());
+		long beginPlain = System.nanoTime();
+		int plainEpisodes = plain.trainUntil(target, rand.split());
+		long plainTime = System.nanoTime() - beginPlain;
+		QLearning replayed = new QLearning(obj.states, obj.cpuValuesStateMap, obj.actions, obj.graph, obj.cpu, obj.penalizationFactor, obj.onlyGoalStates);
+		replayed.setRewardFunction(obj.getRewardFunction());
+		replayed.setExperienceReplay(replayCapacity, planningSteps);
+		long beginReplay = System.nanoTime();
+		int replayEpisodes = replayed.trainUntil(target, rand.split());
+		long replayTime = System.nanoTime() - beginReplay;
+		
+		logger.info("Episodes to reach the avg step " + target + " (5% from " + reference.episodes + " plain episodes): "
+				+ (plainEpisodes < 0 ? "not reached" : plainEpisodes + " in " + plainTime / 1000000 + " ms") + " without replay, "
+				+ (replayEpisodes < 0 ? "not reached" : replayEpisodes + " in " + replayTime / 1000000 + " ms") + " with "
+				+ planningSteps + " replayed updates per step.");
+	}
+	
+	/**
+	 * Build a map that have a computational power (CPU) associated with the list of all state with that CPU
+	 * @param states
+	 * @return the map <CPU, List<State>>
+	 */
+	public static Map<Integer, List<State>> buildCpuValuesStateMap(List<State> states) {
+		
+		Map<Integer, List<State>> cpuValuesStateMap = new HashMap<Integer, List<State>>();
+		
+		// populate the map
+		for (int i=0; i<states.size(); ++i) {
 			
-			for (Machine m : mapMachineNumber.keySet()) {
-				logger.trace(m.getType()+": "+mapMachineNumber.get(m));
-			}
+			State currentState = states.get(i);
+			int currentCpu = currentState.getCpu();
 			
-			// skip the configuration 0
-			if (configId > 0) {
-				Configuration conf = new Configuration(configId, mapMachineNumber);
-				configurations.add(conf);
+			// insert current state in the map <CPU, List<State>>
+			if ( !cpuValuesStateMap.containsKey(currentCpu) ) {
+				List<State> currentStateList = new ArrayList<State>();
+				currentStateList.add(currentState);
+				cpuValuesStateMap.put(currentCpu, currentStateList);
+				logger.debug("found new cpu key: {}", currentCpu);
+			}
+			else {
+				List<State> currentStateList = cpuValuesStateMap.get(currentCpu);
+				currentStateList.add(currentState);
+				cpuValuesStateMap.put(currentCpu, currentStateList);
 			}
-			
-			++configId;
 		}
 		
-		// build state for each configuration
-		ArrayList<State> states = new ArrayList<State>();
-		for (Configuration conf : configurations) {
-			State state = new State(conf.getConfigurationId(), conf);
-			states.add(state);
-			logger.debug(state.toString());
+		// print for each cpu values the list of the states
+		if (logger.isDebugEnabled()) {
+			for (Integer i : cpuValuesStateMap.keySet()) {
+				List<State> iState = cpuValuesStateMap.get(i);
+				logger.debug("States for cpu {}", i);
+				for (State s : iState) {
+					logger.debug("State {}", s.getStateId());
+				}
+			}
 		}
 		
-		return states;
+		return cpuValuesStateMap;
 	}
 	
 	/**
-	 * Check whether 2 states are near or not
+	 * Check whether 2 states of the same state space are near or not
 	 * @param state1
 	 * @param state2
 	 * @return true if the state are near; false otherwise
@@ -100,24 +194,13 @@ public class Starter {
 	public static boolean areStateNear(State state1, State state2) {
 		
 		int distance = 0;
-		Map<Machine, Integer> map1 = state1.getConfiguration().getMachineMap();
-		Map<Machine, Integer> map2 = state2.getConfiguration().getMachineMap();
-		
-		Set<Machine> set1 = map1.keySet();
-		Set<Machine> set2 = map2.keySet();
+		Configuration configuration1 = state1.getConfiguration();
+		Configuration configuration2 = state2.getConfiguration();
+		if (configuration1.getRegistry() != configuration2.getRegistry())
+			throw new IllegalArgumentException("The states belong to different state spaces");
 		
-		for (Machine m : set1) {
-			if (set2.contains(m))
-				distance += Math.abs(map1.get(m) - map2.get(m));
-			else
-				distance += map1.get(m);
-			if (distance > 1)
-				return false;
-		}
-		
-		for (Machine m : set2) {
-			if (!set1.contains(m))
-				distance += map2.get(m);
+		for (int i=0; i<configuration1.getRegistry().size(); ++i) {
+			distance += Math.abs(configuration1.getCount(i) - configuration2.getCount(i));
 			if (distance > 1)
 				return false;
 		}
@@ -125,6 +208,42 @@ public class Starter {
 		return true;
 	}
 	
+	/**
+	 * Parse an exploration strategy given as name[:param:param:param]
+	 * @param value
+	 * @return the exploration strategy
+	 */
+	public static ExplorationStrategy parseExploration(String value) {
+		String[] fields = value.split(":");
+		if (fields[0].equals("uniform") && fields.length == 1)
+			return UniformExploration.INSTANCE;
+		if (fields[0].equals("egreedy") && fields.length == 1)
+			return new EpsilonGreedyExploration(0.5, 0.995, 0.05);
+		if (fields[0].equals("egreedy") && fields.length == 4)
+			return new EpsilonGreedyExploration(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+		if (fields[0].equals("boltzmann") && fields.length == 1)
+			return new BoltzmannExploration(100, 0.995, 1);
+		if (fields[0].equals("boltzmann") && fields.length == 4)
+			return new BoltzmannExploration(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+		throw new IllegalArgumentException("Unknown exploration " + value);
+	}
+	
+	/**
+	 * Parse a stopping rule given as qdelta:threshold:window or policy:window[:maxChanges]
+	 * @param value
+	 * @return the stopping rule
+	 */
+	public static StoppingRule parseStoppingRule(String value) {
+		String[] fields = value.split(":");
+		if (fields[0].equals("qdelta") && fields.length == 3)
+			return new MaxQDeltaStoppingRule(Double.parseDouble(fields[1]), Integer.parseInt(fields[2]));
+		if (fields[0].equals("policy") && fields.length == 2)
+			return new PolicyStableStoppingRule(Integer.parseInt(fields[1]));
+		if (fields[0].equals("policy") && fields.length == 3)
+			return new PolicyStableStoppingRule(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+		throw new IllegalArgumentException("Unknown stopping rule " + value);
+	}
+	
 	public static String arrayToString(Object[] arr) {
 		String s = "{";
 		for (int i=0; i<arr.length; ++i) {
@@ -134,7 +253,7 @@ public class Starter {
 		return s+= "}";
 	}
 	
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
 		
 		// default input parameters
 		String[] types = {"M1", "M2", "M3", "M4"};
@@ -142,6 +261,36 @@ public class Starter {
 		int goalCpu = 20;
 		int penalizationFactor = 10;
 		boolean onlyGoalState = false;
+		int evaluationInterval = 1;
+		int workers = 1;
+		boolean multiGoal = false;
+		String saveFile = null;
+		String loadFile = null;
+		String warmStartFile = null;
+		boolean compareWarmStart = false;
+		String onlineFile = null;
+		boolean follow = true;
+		int queueCapacity = 1024;
+		String metricsFile = "res.csv";
+		ExplorationStrategy exploration = UniformExploration.INSTANCE;
+		StoppingRule stoppingRule = null;
+		String engine = "qlearning";
+		double[] prices = null;
+		int[] latencies = null;
+		double priceWeight = 0D;
+		double latencyWeight = 0D;
+		boolean lazy = false;
+		int snapshotPeriod = 0;
+		String traceFile = null;
+		double headroom = 0.1;
+		int stepsPerMinute = 1;
+		int planningSteps = 0;
+		int replayCapacity = 10000;
+		String sweepDir = null;
+		int[] sweepGoalCpus = null;
+		int[] sweepPenalizations = null;
+		boolean[] sweepOnlyGoals = null;
+		int qMemory = 64;
 
 		// parameters pased as args
 		int parameters = args.length;
@@ -198,81 +347,507 @@ public class Starter {
 					logger.error(e.getMessage() + ". Illegal argument passed for onlygoal. It must be a boolean.");
 					System.exit(1);
 				}
+			}
+			if (args[i].startsWith("evaluation=")){
+				try {
+					evaluationInterval = Integer.parseInt(args[i].replaceFirst("evaluation=",""));
+					if (evaluationInterval < 1)
+						throw new NumberFormatException("For input string: \"" + evaluationInterval + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for evaluation. It must be a positive integer. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("workers=")){
+				try {
+					workers = Integer.parseInt(args[i].replaceFirst("workers=",""));
+					if (workers < 1)
+						throw new NumberFormatException("For input string: \"" + workers + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for workers. It must be a positive integer. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("multigoal=")){
+				try {
+					multiGoal = Boolean.parseBoolean(args[i].replaceFirst("multigoal=",""));
+				}
+				catch(Exception e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for multigoal. It must be a boolean.");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("save=")) {
+				saveFile = args[i].replaceFirst("save=","");
+			}
+			if (args[i].startsWith("load=")) {
+				loadFile = args[i].replaceFirst("load=","");
+			}
+			if (args[i].startsWith("online=")) {
+				onlineFile = args[i].replaceFirst("online=","");
+			}
+			if (args[i].startsWith("follow=")){
+				follow = Boolean.parseBoolean(args[i].replaceFirst("follow=",""));
+			}
+			if (args[i].startsWith("queue=")){
+				try {
+					queueCapacity = Integer.parseInt(args[i].replaceFirst("queue=",""));
+					if (queueCapacity < 1)
+						throw new NumberFormatException("For input string: \"" + queueCapacity + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for queue. It must be a positive integer. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("warmstart=")) {
+				warmStartFile = args[i].replaceFirst("warmstart=","");
+			}
+			if (args[i].startsWith("comparewarmstart=")){
+				compareWarmStart = Boolean.parseBoolean(args[i].replaceFirst("comparewarmstart=",""));
+			}
+			if (args[i].startsWith("metrics=")) {
+				metricsFile = args[i].replaceFirst("metrics=","");
+			}
+			if (args[i].startsWith("exploration=")) {
+				try {
+					exploration = parseExploration(args[i].replaceFirst("exploration=",""));
+				}
+				catch(IllegalArgumentException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for exploration. It must be uniform, "
+							+ "egreedy[:epsilon:decay:min] or boltzmann[:temperature:decay:min].");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("stop=")) {
+				try {
+					stoppingRule = parseStoppingRule(args[i].replaceFirst("stop=",""));
+				}
+				catch(IllegalArgumentException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for stop. It must be "
+							+ "qdelta:threshold:window or policy:window[:maxChanges].");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("prices=")) {
+				try {
+					String[] pricesToCast = args[i].replaceFirst("prices=", "").split(",");
+					prices = new double[pricesToCast.length];
+					for (int j=0; j<pricesToCast.length; ++j) {
+						prices[j] = Double.parseDouble(pricesToCast[j]);
+					}
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for prices. It must be a string "
+							+ "with decimal values separated by comma (e.g. 0.1,0.2,0.4,0.8) and must have the same "
+							+ "dimension of type array.");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("latencies=")) {
+				try {
+					String[] latenciesToCast = args[i].replaceFirst("latencies=", "").split(",");
+					latencies = new int[latenciesToCast.length];
+					for (int j=0; j<latenciesToCast.length; ++j) {
+						latencies[j] = Integer.parseInt(latenciesToCast[j]);
+					}
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for latencies. It must be a string "
+							+ "with the seconds to boot a machine separated by comma (e.g. 60,60,90,120) and must have the same "
+							+ "dimension of type array.");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("priceweight=")){
+				try {
+					priceWeight = Double.parseDouble(args[i].replaceFirst("priceweight=",""));
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for priceweight. It must be a decimal. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("latencyweight=")){
+				try {
+					latencyWeight = Double.parseDouble(args[i].replaceFirst("latencyweight=",""));
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for latencyweight. It must be a decimal. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("snapshot=")){
+				try {
+					snapshotPeriod = Integer.parseInt(args[i].replaceFirst("snapshot=",""));
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for snapshot. It must be an integer (seconds, 0 to disable). ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("trace=")) {
+				traceFile = args[i].replaceFirst("trace=","");
+			}
+			if (args[i].startsWith("headroom=")){
+				try {
+					headroom = Double.parseDouble(args[i].replaceFirst("headroom=",""));
+					if (headroom < 0D)
+						throw new NumberFormatException("For input string: \"" + headroom + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for headroom. It must be a non negative decimal (e.g. 0.1 for 10%). ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("stepsperminute=")){
+				try {
+					stepsPerMinute = Integer.parseInt(args[i].replaceFirst("stepsperminute=",""));
+					if (stepsPerMinute < 1)
+						throw new NumberFormatException("For input string: \"" + stepsPerMinute + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for stepsperminute. It must be a positive integer. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("replay=")){
+				try {
+					planningSteps = Integer.parseInt(args[i].replaceFirst("replay=",""));
+					if (planningSteps < 0)
+						throw new NumberFormatException("For input string: \"" + planningSteps + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for replay. It must be a non negative integer (replayed updates per step). ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("replaycapacity=")){
+				try {
+					replayCapacity = Integer.parseInt(args[i].replaceFirst("replaycapacity=",""));
+					if (replayCapacity < 1)
+						throw new NumberFormatException("For input string: \"" + replayCapacity + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for replaycapacity. It must be a positive integer. ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("sweep=")) {
+				sweepDir = args[i].replaceFirst("sweep=","");
+			}
+			if (args[i].startsWith("goalcpus=")) {
+				try {
+					String[] values = args[i].replaceFirst("goalcpus=", "").split(",");
+					sweepGoalCpus = new int[values.length];
+					for (int j=0; j<values.length; ++j) {
+						sweepGoalCpus[j] = Integer.parseInt(values[j]);
+					}
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for goalcpus. It must be a string "
+							+ "with integer values separated by comma (e.g. 10,20,30).");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("penalizations=")) {
+				try {
+					String[] values = args[i].replaceFirst("penalizations=", "").split(",");
+					sweepPenalizations = new int[values.length];
+					for (int j=0; j<values.length; ++j) {
+						sweepPenalizations[j] = Integer.parseInt(values[j]);
+					}
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for penalizations. It must be a string "
+							+ "with integer values separated by comma (e.g. 5,10,20).");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("onlygoals=")) {
+				String[] values = args[i].replaceFirst("onlygoals=", "").split(",");
+				sweepOnlyGoals = new boolean[values.length];
+				for (int j=0; j<values.length; ++j) {
+					sweepOnlyGoals[j] = Boolean.parseBoolean(values[j]);
+				}
+			}
+			if (args[i].startsWith("lazy=")){
+				lazy = Boolean.parseBoolean(args[i].replaceFirst("lazy=",""));
+			}
+			if (args[i].startsWith("qmemory=")){
+				try {
+					qMemory = Integer.parseInt(args[i].replaceFirst("qmemory=",""));
+					if (qMemory < 1)
+						throw new NumberFormatException("For input string: \"" + qMemory + "\"");
+				}
+				catch(NumberFormatException e) {
+					logger.error(e.getMessage() + ". Illegal argument passed for qmemory. It must be a positive integer (MB). ");
+					System.exit(1);
+				}
+			}
+			if (args[i].startsWith("engine=")) {
+				engine = args[i].replaceFirst("engine=","");
+				if (!engine.equals("qlearning") && !engine.equals("valueiteration") && !engine.equals("prioritized") && !engine.equals("linear")) {
+					logger.error("Illegal argument passed for engine. It must be qlearning, valueiteration, prioritized or linear.");
+					System.exit(1);
+				}
 			}	
 		}
 		
+		// training and lookup counters, readable through JMX
+		PerformanceMetrics performanceMetrics = new PerformanceMetrics();
+		try {
+			performanceMetrics.registerMBean("Starter");
+		}
+		catch (JMException e) {
+			logger.warn("Performance metrics not registered in JMX: " + e.getMessage());
+		}
+		if (snapshotPeriod > 0)
+			performanceMetrics.startSnapshots(snapshotPeriod * 1000L);
+		
+		// a saved model is only loaded, without any training
+		if (loadFile != null) {
+			long beginLoad = System.currentTimeMillis();
+			ModelSnapshot snapshot = ModelSnapshot.load(new File(loadFile));
+			PolicyService policyService = snapshot.toPolicyService();
+			policyService.setPerformanceMetrics(performanceMetrics);
+			logger.info("Loaded model with " + snapshot.getStatesCount() + " states, " + snapshot.getEdgesCount()
+					+ " actions and goal cpu " + snapshot.getGoalCpu() + " in " + (System.currentTimeMillis() - beginLoad) / 1000.0 + " sec.");
+			for (State s : policyService.getStateSpace().getStates()) {
+				int next = policyService.recommend(s.getStateId()-1, snapshot.getGoalCpu());
+				logger.debug("from {} goto {}", s, next);
+			}
+			logger.info("Performance: " + performanceMetrics.snapshot());
+			return;
+		}
+		
 		// check if the type array and maxMachinePerType has the same length
 		if (types.length != maxMachinePerType.length) {
 			logger.error("The array types and maxMachinePerTypes must have the same length!");
 			System.exit(1);
 		}
+		if (prices == null)
+			prices = new double[types.length];
+		if (latencies == null)
+			latencies = new int[types.length];
+		if (types.length != prices.length || types.length != latencies.length) {
+			logger.error("The array types, prices and latencies must have the same length!");
+			System.exit(1);
+		}
 		
 		// parameters visualization
 		System.out.println("Starting with the following parameters:\n"
 				+ "- types = " + arrayToString(types) + "\n"
 				+ "- goalcpu = " + goalCpu + "\n"
 				+ "- penalization = " + penalizationFactor + "\n"
-				+ "- onlygoal = " + onlyGoalState);
+				+ "- onlygoal = " + onlyGoalState + "\n"
+				+ "- evaluation = " + evaluationInterval + "\n"
+				+ "- workers = " + workers + "\n"
+				+ "- multigoal = " + multiGoal + "\n"
+				+ "- metrics = " + metricsFile + "\n"
+				+ "- exploration = " + exploration + "\n"
+				+ "- stop = " + stoppingRule + "\n"
+				+ "- engine = " + engine + "\n"
+				+ "- prices = " + Arrays.toString(prices) + "\n"
+				+ "- latencies = " + Arrays.toString(latencies) + "\n"
+				+ "- priceweight = " + priceWeight + "\n"
+				+ "- latencyweight = " + latencyWeight + "\n"
+				+ "- lazy = " + lazy + (lazy ? " (qmemory = " + qMemory + " MB)" : "") + "\n"
+				+ "- snapshot = " + snapshotPeriod + "\n"
+				+ "- trace = " + traceFile + (traceFile != null ? " (headroom = " + headroom + ", stepsperminute = " + stepsPerMinute + ")" : "") + "\n"
+				+ "- replay = " + planningSteps + (planningSteps > 0 ? " (replaycapacity = " + replayCapacity + ")" : "") + "\n"
+				+ "- sweep = " + sweepDir + "\n"
+				+ "- warmstart = " + warmStartFile + (warmStartFile != null ? " (comparewarmstart = " + compareWarmStart + ")" : "") + "\n"
+				+ "- online = " + onlineFile + (onlineFile != null ? " (follow = " + follow + ", queue = " + queueCapacity + ")" : ""));
+		
+		// large fleets: the states are never built and only the visited ones take memory
+		if (lazy) {
+			long begin = System.currentTimeMillis();
+			LazyStateSpace lazyStateSpace = new LazyStateSpace(types, maxMachinePerType);
+			int capacity = BoundedQTable.capacityFor(qMemory * 1024L * 1024L, lazyStateSpace.getMaxDegree());
+			LazyQLearning lazyObj = new LazyQLearning(lazyStateSpace, goalCpu, penalizationFactor, onlyGoalState, capacity);
+			lazyObj.run();
+			lazyObj.showPolicy(new SplittableRandom().nextLong(lazyStateSpace.getStatesCount()), 1000);
+			logger.info("Time: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.");
+			return;
+		}
+		
+		// approximated Q values, the memory only depends on the number of types
+		if (engine.equals("linear")) {
+			long begin = System.currentTimeMillis();
+			LazyStateSpace lazyStateSpace = new LazyStateSpace(types, maxMachinePerType);
+			LinearQLearning linearObj = new LinearQLearning(lazyStateSpace, goalCpu, penalizationFactor, onlyGoalState);
+			linearObj.run();
+			linearObj.showPolicy(new SplittableRandom().nextLong(lazyStateSpace.getStatesCount()), 1000);
+			logger.info("Time: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.");
+			return;
+		}
 		
 		// build the states with the given types and maxMachinePerTypes arrays
-		List<State> states = buildStates(types, maxMachinePerType);
+		StateSpace stateSpace = new StateSpace(types, maxMachinePerType, prices, latencies);
+		List<State> states = stateSpace.getStates();
 		logger.info("Built " + states.size() +" states.");
 		
 		// build a map that have a computational power (CPU) associated with the list of all state with that CPU
-		Map<Integer, List<State>> cpuValuesStateMap = new HashMap<Integer, List<State>>();
+		Map<Integer, List<State>> cpuValuesStateMap = buildCpuValuesStateMap(states);
 		
 		// build a map that gieven a State has a List of all possible outgoing state, i.e the actions
-		Map<State, List<State>> actions = new HashMap<State, List<State>>();
+		long beginActions = System.currentTimeMillis();
+		Map<State, List<State>> actions = ActionGraphBuilder.buildActions(stateSpace);
+		logger.info("Built actions in " + (System.currentTimeMillis() - beginActions) / 1000.0 + " sec.");
 		
-		// populate the maps
-		for (int i=0; i<states.size(); ++i) {
-			
-			State currentState = states.get(i);
-			int currentCpu = currentState.getCpu();
-			actions.put(currentState, new ArrayList<State>());
+		// create qlearning and execute
+		long begin = System.currentTimeMillis();
+		
+		if (sweepDir != null) {
+			// grid of runs sharing the states and the actions, each one with its own metrics file
+			if (sweepGoalCpus == null)
+				sweepGoalCpus = new int[] {goalCpu};
+			if (sweepPenalizations == null)
+				sweepPenalizations = new int[] {penalizationFactor};
+			if (sweepOnlyGoals == null)
+				sweepOnlyGoals = new boolean[] {onlyGoalState};
+			ParameterSweep sweep = new ParameterSweep(states, cpuValuesStateMap, actions);
+			sweep.setEvaluationInterval(evaluationInterval);
+			sweep.setCostWeights(priceWeight, latencyWeight);
+			List<ParameterSweep.Result> results = sweep.run(sweepGoalCpus, sweepPenalizations, sweepOnlyGoals, new File(sweepDir), workers);
+			logger.info("Parameter sweep time with " + workers + " workers: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.\n"
+					+ ParameterSweep.summary(results));
+			return;
+		}
+		
+		if (onlineFile != null) {
+			// every sample can need any goal: solve them all, then keep learning from the samples
+			MultiGoalQLearning multiGoalObj = solveAllGoals(states, cpuValuesStateMap, actions, penalizationFactor, onlyGoalState,
+					priceWeight, latencyWeight, engine, workers);
+			logger.info("Time to solve all the goals: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.");
 			
-			// insert current state in the map <CPU, List<State>>
-			if ( !cpuValuesStateMap.containsKey(currentCpu) ) {
-				List<State> currentStateList = new ArrayList<State>();
-				currentStateList.add(currentState);
-				cpuValuesStateMap.put(currentCpu, currentStateList);
-				logger.debug("found new cpu key: " + currentCpu);
-			}
-			else {
-				List<State> currentStateList = cpuValuesStateMap.get(currentCpu);
-				currentStateList.add(currentState);
-				cpuValuesStateMap.put(currentCpu, currentStateList);
-			}
+			// the default uniform exploration would scale at random, explore only a bit
+			if (exploration == UniformExploration.INSTANCE)
+				exploration = new EpsilonGreedyExploration(0.05, 1D, 0.05);
+			OnlineController controller = new OnlineController(multiGoalObj, headroom, exploration, 0);
+			FileTailSource tail = new FileTailSource(new File(onlineFile), follow);
+			SampleQueue queue = new SampleQueue(queueCapacity);
+			queue.feed(tail);
+			controller.run(queue);
+			logger.info("Samples skipped: " + tail.getSkippedLines() + ", reader blocked by a full queue: " + queue.getBlockedPuts() + " times.");
+			return;
+		}
+		
+		if (traceFile != null) {
+			// every demand can need any goal: solve them all, then replay the trace
+			MultiGoalQLearning multiGoalObj = solveAllGoals(states, cpuValuesStateMap, actions, penalizationFactor, onlyGoalState,
+					priceWeight, latencyWeight, engine, workers);
+			logger.info("Time to solve all the goals: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.");
+			PolicyService policyService = new PolicyService(stateSpace);
+			multiGoalObj.addPolicies(policyService);
 			
-			// insert actions for each near state
-			for (int j=0; j<states.size(); ++j) {
-				// link 2 states only if they are nears
-				if (areStateNear(states.get(i), states.get(j))) {
-					List<State> currentStateActionsList = actions.get(currentState);
-					currentStateActionsList.add(states.get(j));
-					actions.put(currentState, currentStateActionsList);
-					logger.debug("Inserted Action: "+states.get(i).getStateId() + "->" + states.get(j));
-				}	
-			}
+			long beginReplay = System.currentTimeMillis();
+			TraceSimulator simulator = new TraceSimulator(policyService, headroom, stepsPerMinute);
+			TraceSimulator.Report report = simulator.run(new File(traceFile), 0);
+			logger.info("Replayed " + traceFile + " in " + (System.currentTimeMillis() - beginReplay) / 1000.0 + " sec.: " + report);
+			return;
 		}
 		
-		// print for each cpu values the list of the states
-		for (Integer i : cpuValuesStateMap.keySet()) {
-			List<State> iState = cpuValuesStateMap.get(i);
-			logger.debug("States for cpu " + i);
-			for (State s : iState) {
-				logger.debug("State " + s.getStateId());
+		if (multiGoal) {
+			// train every goal cpu at once, then show the policy of the requested goal
+			MultiGoalQLearning multiGoalObj = new MultiGoalQLearning(states, cpuValuesStateMap, actions, penalizationFactor, onlyGoalState);
+			if (priceWeight != 0D || latencyWeight != 0D) {
+				for (int goal : multiGoalObj.getGoals()) {
+					QLearning goalObj = multiGoalObj.getQLearning(goal);
+					goalObj.setRewardFunction(new CostAwareReward(goalObj.getRewardFunction(), priceWeight, latencyWeight));
+				}
+			}
+			for (int goal : multiGoalObj.getGoals()) {
+				multiGoalObj.getQLearning(goal).setPerformanceMetrics(performanceMetrics);
 			}
+			performanceMetrics.reset();
+			multiGoalObj.run(workers);
+			logger.info("Time to train all the goals: " + (System.currentTimeMillis() - begin) / 1000.0 + " sec.");
+			logger.info("Performance: " + performanceMetrics.snapshot());
+			if (multiGoalObj.getQLearning(goalCpu) != null)
+				multiGoalObj.getQLearning(goalCpu).showPolicy();
+			return;
 		}
-		
-		// create qlearning and execute
-		long begin = System.currentTimeMillis();
 	    
 		QLearning obj = new QLearning(states, cpuValuesStateMap, actions, goalCpu, penalizationFactor, onlyGoalState);
-	    obj.run();
+		if (priceWeight != 0D || latencyWeight != 0D)
+			obj.setRewardFunction(new CostAwareReward(obj.getRewardFunction(), priceWeight, latencyWeight));
+		obj.setEvaluationInterval(evaluationInterval);
+		obj.setPerformanceMetrics(performanceMetrics);
+		obj.setExploration(exploration);
+		obj.setStoppingRule(stoppingRule);
+		obj.setExperienceReplay(replayCapacity, planningSteps);
+		ModelSnapshot warmSnapshot = null;
+		WarmStart warmStart = null;
+		if (warmStartFile != null && !engine.equals("qlearning"))
+			logger.warn("The warm start is only used by the qlearning engine.");
+		else if (warmStartFile != null) {
+			// start from the Q values of a model trained on the previous inventory, then stop once the avg step is stable
+			warmSnapshot = ModelSnapshot.load(new File(warmStartFile));
+			if (warmSnapshot.getPenalizationFactor() != penalizationFactor || warmSnapshot.isOnlyGoalStates() != onlyGoalState)
+				logger.warn("The warm start model is trained with different rewards (penalization " + warmSnapshot.getPenalizationFactor()
+						+ ", onlygoal " + warmSnapshot.isOnlyGoalStates() + ").");
+			warmStart = new WarmStart(warmSnapshot, stateSpace, obj);
+			logger.info("Warm start from " + warmStartFile + ": " + warmStart.getMappedStates() + " of " + warmSnapshot.getStatesCount()
+					+ " states mapped, " + warmStart.getNewStates() + " new states, " + warmStart.getCopiedValues() + " of "
+					+ obj.graph.getEdgesCount() + " Q values copied.");
+			if (stoppingRule == null)
+				obj.setStoppingRule(new AverageStepsStoppingRule(obj, WARM_START_WINDOW, WARM_START_TOLERANCE));
+		}
+	    long beginTraining = System.currentTimeMillis();
+	    performanceMetrics.reset(); // rates from the start of the training
+	    if (engine.equals("valueiteration")) {
+	    	// exact solution, copied into the QLearning to reuse its output and snapshot
+	    	ValueIterationSolver solver = new ValueIterationSolver(obj, workers);
+	    	solver.solve();
+	    	obj.setQValues(solver.getQValues());
+	    	logger.info("Value iteration time with " + workers + " workers: " + (System.currentTimeMillis() - beginTraining) / 1000.0 + " sec.");
+	    }
+	    else if (engine.equals("prioritized")) {
+	    	// exact solution updating only the states whose Bellman error is not zero
+	    	PrioritizedSweepingSolver solver = new PrioritizedSweepingSolver(obj);
+	    	solver.solve();
+	    	obj.setQValues(solver.getQValues());
+	    	logger.info("Prioritized sweeping time: " + (System.currentTimeMillis() - beginTraining) / 1000.0 + " sec.");
+	    }
+	    else {
+	    	if (workers > 1)
+	    		obj.runParallel(workers);
+	    	else if (warmStart != null)
+	    		logger.info("Warm start trained " + warmStart.train(new SplittableRandom()) + " episodes.");
+	    	else {
+	    		// only run() writes the metrics, the file is not touched by the other engines
+	    		TrainingMetricsSink sink = metricsFile.equals("none") ? NoOpMetricsSink.INSTANCE
+	    				: new CsvMetricsSink(new File(metricsFile));
+	    		obj.setMetricsSink(sink);
+	    		try {
+	    			obj.run();
+	    		}
+	    		finally {
+	    			sink.close();
+	    		}
+	    	}
+	    	logger.info("Training time with " + workers + " workers: " + (System.currentTimeMillis() - beginTraining) / 1000.0 + " sec.");
+	    	logger.info("Performance: " + performanceMetrics.snapshot());
+	    	if (planningSteps > 0 && workers > 1)
+	    		logger.warn("The experience replay is only used by the single-thread training, the comparison is skipped.");
+	    	else if (planningSteps > 0)
+	    		compareReplay(obj, replayCapacity, planningSteps);
+	    	// the comparison trains two more models per order, only on request
+	    	if (warmSnapshot != null && compareWarmStart && workers == 1)
+	    		compareWarmStart(obj, warmSnapshot, stateSpace, stoppingRule);
+	    }
 	    obj.printResult();
 	    obj.showPolicy();
 	    
+	    if (saveFile != null) {
+	    	ModelSnapshot.write(obj, stateSpace, new File(saveFile));
+	    	logger.info("Saved model to " + saveFile);
+	    }
+	    
 	    long end = System.currentTimeMillis();
 	    logger.info("Time: " + (end - begin) / 1000.0 + " sec.");
 	    
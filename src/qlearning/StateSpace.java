@@ -0,0 +1,155 @@
+package qlearning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Canonical state space: one State for each distinct vector of machine counts
+ * (0..maxMachinePerType[i] machines of type i), the empty configuration excluded.
+ * Vectors are enumerated as the mixed-radix numbers with radix maxMachinePerType[i]+1
+ * (the first type is the least significant digit), so the key of a vector is
+ * sum(counts[i] * radixWeight[i]), the stateId is the key and the index of the
+ * state in the list is key-1.
+ *
+ * @author Federico Lombardi
+ */
+public class StateSpace {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private String[] types;
+	private int[] maxMachinePerType;
+	private int[] radixWeight;
+	private Machine[] machines;
+	private MachineRegistry registry;
+	private List<State> states;
+
+	/**
+	 * Build the states with the given types and maxMachinePerTypes arrays
+	 * @param types
+	 * @param maxMachinePerType
+	 */
+	public StateSpace(String[] types, int[] maxMachinePerType) {
+		this(types, maxMachinePerType, new double[types.length], new int[types.length]);
+	}
+
+	/**
+	 * Build the states of machines with a price and a provisioning latency
+	 * @param types
+	 * @param maxMachinePerType
+	 * @param prices price of a running machine of each type
+	 * @param provisioningLatencies seconds to boot or to release a machine of each type
+	 */
+	public StateSpace(String[] types, int[] maxMachinePerType, double[] prices, int[] provisioningLatencies) {
+		if (types.length != maxMachinePerType.length)
+			throw new IllegalArgumentException("The array types and maxMachinePerTypes must have the same length!");
+		if (types.length != prices.length || types.length != provisioningLatencies.length)
+			throw new IllegalArgumentException("The array types, prices and latencies must have the same length!");
+
+		this.types = types;
+		this.maxMachinePerType = maxMachinePerType;
+		this.radixWeight = new int[types.length];
+		this.machines = new Machine[types.length];
+
+		long keysCount = 1;
+		for (int i=0; i<types.length; ++i) {
+			this.radixWeight[i] = (int) keysCount;
+			keysCount *= maxMachinePerType[i] + 1;
+			if (keysCount > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Too many states for the given types and maxMachinePerTypes arrays");
+			if (maxMachinePerType[i] > Byte.MAX_VALUE)
+				throw new IllegalArgumentException("At most " + Byte.MAX_VALUE + " machines per type are supported");
+			this.machines[i] = new Machine(types[i], i+1, prices[i], provisioningLatencies[i]);
+			logger.trace("Added machine {}", this.machines[i]);
+		}
+
+		this.registry = new MachineRegistry(this.machines);
+
+		// skip the configuration 0
+		this.states = new ArrayList<State>((int) keysCount - 1);
+		int[] counts = new int[types.length];
+		for (int key=1; key<keysCount; ++key) {
+			decode(key, counts);
+			State state = new State(key, new Configuration(key, this.registry, counts));
+			this.states.add(state);
+			logger.debug("{}", state);
+		}
+	}
+
+	public String[] getTypes() {
+		return this.types;
+	}
+
+	public int[] getMaxMachinePerType() {
+		return this.maxMachinePerType;
+	}
+
+	public Machine[] getMachines() {
+		return this.machines;
+	}
+
+	public MachineRegistry getRegistry() {
+		return this.registry;
+	}
+
+	public List<State> getStates() {
+		return this.states;
+	}
+
+	public int getStatesCount() {
+		return this.states.size();
+	}
+
+	/**
+	 * @param type index of the machine type
+	 * @return the value of a unit of the type in the mixed-radix key
+	 */
+	public int getRadixWeight(int type) {
+		return this.radixWeight[type];
+	}
+
+	/**
+	 * @param counts number of machines for each type
+	 * @return the index of the state in the list, -1 if the vector is out of the space
+	 */
+	public int indexOf(int[] counts) {
+		int key = 0;
+		for (int i=0; i<this.types.length; ++i) {
+			if (counts[i] < 0 || counts[i] > this.maxMachinePerType[i])
+				return -1;
+			key += counts[i] * this.radixWeight[i];
+		}
+		return key - 1;
+	}
+
+	/**
+	 * @param counts number of machines for each type
+	 * @return the state with the given machine counts, null if the vector is out of the space
+	 */
+	public State getState(int[] counts) {
+		int index = indexOf(counts);
+		return index < 0 ? null : this.states.get(index);
+	}
+
+	/**
+	 * Fill counts with the number of machines of each type of the state at the given index
+	 * @param index
+	 * @param counts
+	 */
+	public void getCounts(int index, int[] counts) {
+		decode(index + 1, counts);
+	}
+
+	private void decode(int key, int[] counts) {
+		for (int i=0; i<this.types.length; ++i) {
+			counts[i] = key % (this.maxMachinePerType[i] + 1);
+			key /= this.maxMachinePerType[i] + 1;
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Early-stopping criterion checked by the single-thread training after every episode.
+ *
+ * @author Federico Lombardi
+ */
+public interface StoppingRule {
+
+	/**
+	 * @param episode number of the episode just completed
+	 * @param maxQDelta highest |Q change| of the episode
+	 * @param policyChanges number of greedy actions changed by the episode
+	 * @return true if the training can stop
+	 */
+	boolean shouldStop(int episode, double maxQDelta, int policyChanges);
+
+	/**
+	 * Forget the episodes seen so far
+	 */
+	void reset();
+
+}
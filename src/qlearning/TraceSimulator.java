@@ -0,0 +1,269 @@
+package qlearning;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Replay of a cpu demand trace against trained policies. The trace is a text file
+ * with one sample per line (one per minute); the demand is the last field of the
+ * line, separated by comma, semicolon or blanks, so both "12.5" and
+ * "2016-01-01 00:00,12.5" are accepted and lines without a number (e.g. a header)
+ * are skipped. The file is read through read-only memory mappings of CHUNK_SIZE
+ * bytes and parsed byte by byte, so a year of minutes is replayed without
+ * allocating a String per line.
+ *
+ * For every minute the demand, increased by the headroom, is mapped to a goal cpu,
+ * the current configuration follows the policy of the goal for at most
+ * stepsPerMinute actions, then the cpu of the configuration is compared to the demand.
+ *
+ * @author Federico Lombardi
+ */
+public class TraceSimulator {
+
+	static final int CHUNK_SIZE = 1 << 26;
+
+	private PolicyService policyService;
+	private double headroom;
+	private int stepsPerMinute;
+	private int[] stateCpu;
+	private int[] goalOf; // trained goal used for each required cpu
+
+	/**
+	 * @param policyService policies of the goals to use
+	 * @param headroom fraction of the demand added to the goal cpu (e.g. 0.1 for 10%)
+	 * @param stepsPerMinute scale actions that can be taken in a minute
+	 */
+	public TraceSimulator(PolicyService policyService, double headroom, int stepsPerMinute) {
+		if (headroom < 0D)
+			throw new IllegalArgumentException("The headroom must not be negative");
+		if (stepsPerMinute < 1)
+			throw new IllegalArgumentException("At least one step per minute is needed");
+		this.policyService = policyService;
+		this.headroom = headroom;
+		this.stepsPerMinute = stepsPerMinute;
+
+		List<State> states = policyService.getStateSpace().getStates();
+		this.stateCpu = new int[states.size()];
+		int maxCpu = 0;
+		for (State s : states) {
+			this.stateCpu[s.getStateId()-1] = s.getCpu();
+			maxCpu = Math.max(maxCpu, s.getCpu());
+		}
+
+		// the smallest trained goal covering the cpu, the highest trained goal if none covers it
+		this.goalOf = new int[maxCpu + 1];
+		int goal = -1;
+		int highest = -1;
+		for (int cpu = maxCpu; cpu >= 0; --cpu) {
+			if (policyService.hasPolicy(cpu)) {
+				goal = cpu;
+				if (highest < 0)
+					highest = cpu;
+			}
+			this.goalOf[cpu] = goal;
+		}
+		if (highest < 0)
+			throw new IllegalArgumentException("The policy service has no trained goal");
+		// above the highest goal
+		for (int cpu = maxCpu; cpu >= 0 && this.goalOf[cpu] < 0; --cpu) {
+			this.goalOf[cpu] = highest;
+		}
+	}
+
+	/**
+	 * Replay a trace file
+	 * @param trace
+	 * @param initialState index of the configuration running before the first minute
+	 * @return the report of the replay
+	 * @throws IOException
+	 */
+	public Report run(File trace, int initialState) throws IOException {
+		Report report = new Report();
+		int current = initialState;
+		FileChannel channel = FileChannel.open(trace.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(CHUNK_SIZE, size - position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean last = position + length == size;
+				int lineStart = 0;
+				for (int i = 0; i < length; i++) {
+					if (buffer.get(i) == '\n') {
+						current = line(buffer, lineStart, i, current, report);
+						lineStart = i + 1;
+					}
+				}
+				if (last) {
+					if (lineStart < length)
+						current = line(buffer, lineStart, (int) length, current, report);
+					position = size;
+				}
+				else {
+					if (lineStart == 0)
+						throw new IOException("Line longer than " + CHUNK_SIZE + " bytes at offset " + position);
+					// the next mapping starts from the first incomplete line
+					position += lineStart;
+				}
+			}
+		}
+		finally {
+			channel.close();
+		}
+		return report;
+	}
+
+	/**
+	 * Parse the demand of the line in [from, to) and simulate its minute
+	 * @return the configuration at the end of the minute
+	 */
+	private int line(MappedByteBuffer buffer, int from, int to, int current, Report report) {
+		double demand = demand(buffer, from, to);
+		if (Double.isNaN(demand)) {
+			report.skippedLines++;
+			return current;
+		}
+		return minute(demand, current, report);
+	}
+
+	/**
+	 * Simulate a minute
+	 * @param demand cpu needed in the minute
+	 * @param current index of the running configuration
+	 * @param report
+	 * @return the index of the configuration at the end of the minute
+	 */
+	int minute(double demand, int current, Report report) {
+		int required = (int) Math.ceil(demand * (1D + this.headroom));
+		int goal = this.goalOf[Math.max(0, Math.min(required, this.goalOf.length - 1))];
+		for (int step = 0; step < this.stepsPerMinute; step++) {
+			int next = this.policyService.recommend(current, goal);
+			if (next == current)
+				break;
+			current = next;
+			report.scaleActions++;
+		}
+		double capacity = this.stateCpu[current];
+		report.minutes++;
+		if (capacity < demand) {
+			report.slaViolations++;
+			report.underProvisionedCpuMinutes += demand - capacity;
+		}
+		else {
+			report.overProvisionedCpuMinutes += capacity - demand;
+		}
+		return current;
+	}
+
+	/**
+	 * @return the demand of the line in [from, to), i.e. its last field, NaN if it is not a number
+	 */
+	static double demand(ByteBuffer buffer, int from, int to) {
+		int end = to;
+		while (end > from && isSeparator(buffer.get(end - 1)))
+			end--;
+		int start = end;
+		while (start > from && !isSeparator(buffer.get(start - 1)))
+			start--;
+		return parse(buffer, start, end);
+	}
+
+	private static boolean isSeparator(byte b) {
+		return b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\r';
+	}
+
+	/**
+	 * @return the decimal number in [from, to), NaN if the bytes are not a number
+	 */
+	private static double parse(ByteBuffer buffer, int from, int to) {
+		if (from == to)
+			return Double.NaN;
+		long digits = 0;
+		int decimals = -1;
+		boolean negative = buffer.get(from) == '-';
+		int i = negative ? from + 1 : from;
+		if (i == to)
+			return Double.NaN;
+		for (; i < to; i++) {
+			byte b = buffer.get(i);
+			if (b == '.' && decimals < 0)
+				decimals = 0;
+			else if (b >= '0' && b <= '9' && digits < Long.MAX_VALUE / 10) {
+				digits = digits * 10 + (b - '0');
+				if (decimals >= 0)
+					decimals++;
+			}
+			else
+				return Double.NaN;
+		}
+		double value = decimals > 0 ? digits / Math.pow(10, decimals) : digits;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Outcome of a replay
+	 */
+	public static class Report {
+
+		long minutes;
+		long slaViolations;
+		long scaleActions;
+		long skippedLines;
+		double overProvisionedCpuMinutes;
+		double underProvisionedCpuMinutes;
+
+		public long getMinutes() {
+			return this.minutes;
+		}
+
+		/**
+		 * @return minutes whose demand exceeded the cpu of the configuration
+		 */
+		public long getSlaViolations() {
+			return this.slaViolations;
+		}
+
+		public long getScaleActions() {
+			return this.scaleActions;
+		}
+
+		/**
+		 * @return lines without a demand
+		 */
+		public long getSkippedLines() {
+			return this.skippedLines;
+		}
+
+		/**
+		 * @return sum over the minutes of the cpu running above the demand
+		 */
+		public double getOverProvisionedCpuMinutes() {
+			return this.overProvisionedCpuMinutes;
+		}
+
+		/**
+		 * @return sum over the minutes of the demand not served
+		 */
+		public double getUnderProvisionedCpuMinutes() {
+			return this.underProvisionedCpuMinutes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("minutes=%d slaViolations=%d (%.2f%%) overProvisioned=%.1f cpu-minutes"
+					+ " underProvisioned=%.1f cpu-minutes scaleActions=%d skippedLines=%d",
+					minutes, slaViolations, minutes == 0 ? 0D : 100D * slaViolations / minutes,
+					overProvisionedCpuMinutes, underProvisionedCpuMinutes, scaleActions, skippedLines);
+		}
+
+	}
+
+}
@@ -0,0 +1,27 @@
+package qlearning;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Receiver of the per-episode training metrics. record is called on the training
+ * thread after every episode, so implementations must not block it.
+ *
+ * @author Federico Lombardi
+ */
+public interface TrainingMetricsSink {
+
+	/**
+	 * @param episode number of the episode
+	 * @param steps steps taken by the episode to reach a goal state
+	 * @param avgSteps avg step to reach a goal state, NaN if not sampled in this episode
+	 * @param maxQDelta highest |Q(s,a) change| of the episode
+	 * @param wallTimeNanos time elapsed since the beginning of the training
+	 */
+	void record(int episode, int steps, double avgSteps, double maxQDelta, long wallTimeNanos);
+
+	/**
+	 * Flush the pending records and release the resources, the following calls do nothing
+	 */
+	void close();
+
+}
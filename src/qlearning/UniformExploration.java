@@ -0,0 +1,26 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Select one among all possible actions with the same probability.
+ *
+ * @author Federico Lombardi
+ */
+public class UniformExploration implements ExplorationStrategy {
+
+	public static final UniformExploration INSTANCE = new UniformExploration();
+
+	@Override
+	public int selectEdge(ActionGraph graph, double[] Q, int state, int episode, SplittableRandom rand) {
+		return graph.getFirstEdge(state) + rand.nextInt(graph.getDegree(state));
+	}
+
+	@Override
+	public String toString() {
+		return "uniform";
+	}
+
+}
@@ -0,0 +1,209 @@
+package qlearning;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Exact engine for the deterministic autoscaling problem. Instead of sampling
+ * episodes it computes the fixed point the Q-learning updates converge to,
+ * Q(s,a) = R(s,a) + gamma * max Q(a, all actions), by synchronous value iteration
+ * over the CSR adjacency of a QLearning built for the same goal. Goal states are
+ * terminal, so their values stay as in the QLearning (never updated).
+ * A sweep can be split over several threads by ranges of states.
+ *
+ * @author Federico Lombardi
+ */
+public class ValueIterationSolver implements Solver {
+
+	static final Logger logger = LogManager.getLogger("midlab");
+
+	private List<State> states;
+	private ActionGraph graph;
+	private double[] R;
+	private BitSet goal;
+	private double gamma;
+	private int cpu;
+	private int workers;
+
+	private double tolerance = 1e-9;
+	private int maxIterations = 10000;
+	private int iterations;
+
+	private double[] V;
+	private double[] nextV;
+	private double[] Q;
+
+	/**
+	 * @param problem QLearning providing states, actions, rewards and discount
+	 * @param workers number of threads of each sweep
+	 */
+	public ValueIterationSolver(QLearning problem, int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("At least one worker is needed");
+		this.states = problem.states;
+		this.graph = problem.graph;
+		this.R = problem.R;
+		this.goal = problem.goal;
+		this.gamma = problem.gamma;
+		this.cpu = problem.getGoalCpu();
+		this.workers = workers;
+		int statesCount = graph.getStatesCount();
+		this.V = new double[statesCount];
+		this.nextV = new double[statesCount];
+		this.Q = new double[graph.getEdgesCount()];
+	}
+
+	public ValueIterationSolver(QLearning problem) {
+		this(problem, 1);
+	}
+
+	/**
+	 * @param tolerance the iteration stops when no value moves more than this
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return the sweeps done by the last solve
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * Iterate the Bellman update until convergence, then fill the Q values
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Override
+	public void solve() throws InterruptedException, ExecutionException {
+		int statesCount = graph.getStatesCount();
+		// V(s) is what QLearning.getMaxQ returns, which never goes below Double.MIN_VALUE
+		for (int s = 0; s < statesCount; ++s) {
+			V[s] = Double.MIN_VALUE;
+		}
+
+		ExecutorService pool = workers > 1 ? Executors.newFixedThreadPool(workers) : null;
+		try {
+			List<Callable<Double>> sweeps = new ArrayList<Callable<Double>>();
+			int chunk = (statesCount + workers - 1) / workers;
+			for (int w = 0; w < workers; ++w) {
+				final int from = w * chunk;
+				final int to = Math.min(statesCount, from + chunk);
+				sweeps.add(new Callable<Double>() {
+					@Override
+					public Double call() {
+						return sweep(from, to);
+					}
+				});
+			}
+
+			iterations = 0;
+			double delta;
+			do {
+				delta = 0D;
+				if (pool == null) {
+					delta = sweep(0, statesCount);
+				}
+				else {
+					for (Future<Double> f : pool.invokeAll(sweeps)) {
+						delta = Math.max(delta, f.get());
+					}
+				}
+				double[] swap = V;
+				V = nextV;
+				nextV = swap;
+				++iterations;
+			} while (delta > tolerance && iterations < maxIterations);
+			logger.info("Value iteration stopped after {} sweeps, last delta {}", iterations, delta);
+		}
+		finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		for (int s = 0; s < statesCount; ++s) {
+			if (goal.get(s))
+				continue;
+			for (int e = graph.getFirstEdge(s); e < graph.getLastEdge(s); ++e) {
+				Q[e] = R[e] + gamma * V[graph.getTarget(e)];
+			}
+		}
+	}
+
+	/**
+	 * One Jacobi sweep over a range of states, from V into nextV
+	 * @return the largest change of the range
+	 */
+	private double sweep(int from, int to) {
+		double delta = 0D;
+		for (int s = from; s < to; ++s) {
+			double best = Double.MIN_VALUE;
+			if (!goal.get(s)) {
+				for (int e = graph.getFirstEdge(s); e < graph.getLastEdge(s); ++e) {
+					double value = R[e] + gamma * V[graph.getTarget(e)];
+					if (value > best)
+						best = value;
+				}
+			}
+			nextV[s] = best;
+			delta = Math.max(delta, Math.abs(best - V[s]));
+		}
+		return delta;
+	}
+
+	@Override
+	public int getGoalCpu() {
+		return this.cpu;
+	}
+
+	@Override
+	public ActionGraph getActionGraph() {
+		return this.graph;
+	}
+
+	@Override
+	public double[] getQValues() {
+		return this.Q;
+	}
+
+	@Override
+	public double getQ(State s, State a) {
+		int edge = graph.getEdge(s.getStateId()-1, a.getStateId()-1);
+		return edge < 0 ? 0 : Q[edge];
+	}
+
+	/**
+	 * Same rule of QLearning.getPolicy: the action with the highest positive Q value
+	 */
+	@Override
+	public State getPolicy(State state) {
+		int stateIndex = state.getStateId()-1;
+		double maxValue = Double.MIN_VALUE;
+		State policyGotoState = state;
+		for (int e = graph.getFirstEdge(stateIndex); e < graph.getLastEdge(stateIndex); e++) {
+			if (Q[e] > maxValue) {
+				maxValue = Q[e];
+				policyGotoState = states.get(graph.getTarget(e));
+			}
+		}
+		return policyGotoState;
+	}
+
+}
@@ -0,0 +1,149 @@
+package qlearning;
+
+import java.util.SplittableRandom;
+
+/**
+ * Project of Learning in Autonomous Systems
+ *
+ * Initialization of a QLearning from a model trained on another machine inventory,
+ * e.g. before a type was added or the max number of machines of a type was raised.
+ * Every state of the snapshot is mapped to the state of the new space with the same
+ * machine-count vector, matching the types by name (a type missing from the snapshot
+ * counts zero machines), and the Q value of every action whose both ends are mapped
+ * is copied. The other actions start from zero, so the training only has to learn
+ * the part of the space that is new.
+ *
+ * @author Federico Lombardi
+ */
+public class WarmStart {
+
+	private QLearning qlearning;
+	private int[] stateMap; // state of the new space for each state of the snapshot, -1 if none
+	private int[] newStates; // states of the new space without an equivalent in the snapshot
+	private int mappedStates;
+	private int copiedValues;
+
+	/**
+	 * Copy the Q values of the snapshot into a QLearning built on the state space
+	 * @param snapshot model trained for the same goal cpu
+	 * @param stateSpace state space the QLearning is built on
+	 * @param qlearning
+	 */
+	public WarmStart(ModelSnapshot snapshot, StateSpace stateSpace, QLearning qlearning) {
+		if (snapshot.getGoalCpu() != qlearning.getGoalCpu())
+			throw new IllegalArgumentException("The snapshot is trained for goal cpu " + snapshot.getGoalCpu()
+					+ ", not " + qlearning.getGoalCpu());
+		if (qlearning.graph.getStatesCount() != stateSpace.getStatesCount())
+			throw new IllegalArgumentException("The QLearning is not built on the given state space");
+
+		// position of each snapshot type in the new space
+		String[] types = stateSpace.getTypes();
+		String[] oldTypes = snapshot.getTypes();
+		int[] typeMap = new int[oldTypes.length];
+		for (int i=0; i<oldTypes.length; ++i) {
+			typeMap[i] = -1;
+			for (int j=0; j<types.length; ++j) {
+				if (types[j].equals(oldTypes[i])) {
+					if (stateSpace.getMachines()[j].getCpu() != snapshot.getMachineCpu()[i])
+						throw new IllegalArgumentException("The cpu of the machine type " + types[j] + " has changed");
+					typeMap[i] = j;
+				}
+			}
+		}
+
+		this.qlearning = qlearning;
+		int[] oldCounts = new int[oldTypes.length];
+		int[] counts = new int[types.length];
+		this.stateMap = new int[snapshot.getStatesCount()];
+		for (int s = 0; s < snapshot.getStatesCount(); ++s) {
+			snapshot.getCounts(s, oldCounts);
+			boolean removed = false;
+			for (int j=0; j<types.length; ++j) {
+				counts[j] = 0;
+			}
+			for (int i=0; i<oldTypes.length; ++i) {
+				if (typeMap[i] >= 0)
+					counts[typeMap[i]] = oldCounts[i];
+				else if (oldCounts[i] > 0)
+					removed = true;
+			}
+			this.stateMap[s] = removed ? -1 : stateSpace.indexOf(counts);
+			if (this.stateMap[s] >= 0)
+				++this.mappedStates;
+		}
+
+		boolean[] known = new boolean[stateSpace.getStatesCount()];
+		for (int s = 0; s < snapshot.getStatesCount(); ++s) {
+			if (this.stateMap[s] >= 0)
+				known[this.stateMap[s]] = true;
+		}
+		this.newStates = new int[stateSpace.getStatesCount() - this.mappedStates];
+		int count = 0;
+		for (int s = 0; s < known.length; ++s) {
+			if (!known[s])
+				this.newStates[count++] = s;
+		}
+
+		ActionGraph graph = qlearning.graph;
+		double[] Q = new double[graph.getEdgesCount()];
+		for (int s = 0; s < snapshot.getStatesCount(); ++s) {
+			int from = this.stateMap[s];
+			if (from < 0)
+				continue;
+			for (int e = snapshot.getFirstEdge(s); e < snapshot.getLastEdge(s); ++e) {
+				int to = this.stateMap[snapshot.getTarget(e)];
+				int edge = to < 0 ? -1 : graph.getEdge(from, to);
+				if (edge >= 0) {
+					Q[edge] = snapshot.getQ(e);
+					++this.copiedValues;
+				}
+			}
+		}
+		qlearning.setQValues(Q);
+	}
+
+	/**
+	 * Train until the stopping rule of the QLearning holds: one episode starts from each
+	 * new state first, since the random episodes would take long to reach the few states
+	 * the snapshot knows nothing about, then the episodes start from random states
+	 * @param rand
+	 * @return the episodes run
+	 */
+	public int train(SplittableRandom rand) {
+		for (int i = 0; i < this.newStates.length; ++i) {
+			this.qlearning.runEpisode(i, this.newStates[i], rand, true);
+		}
+		this.qlearning.train(rand);
+		return this.newStates.length + this.qlearning.getEpisodesRun();
+	}
+
+	/**
+	 * @param snapshotState index of a state of the snapshot
+	 * @return index of the same configuration in the new state space, -1 if it does not exist anymore
+	 */
+	public int getMappedState(int snapshotState) {
+		return this.stateMap[snapshotState];
+	}
+
+	/**
+	 * @return number of snapshot states found in the new state space
+	 */
+	public int getMappedStates() {
+		return this.mappedStates;
+	}
+
+	/**
+	 * @return number of states of the new space without an equivalent in the snapshot
+	 */
+	public int getNewStates() {
+		return this.newStates.length;
+	}
+
+	/**
+	 * @return number of Q values copied from the snapshot
+	 */
+	public int getCopiedValues() {
+		return this.copiedValues;
+	}
+
+}